@@ -8,6 +8,7 @@ plugins {
     id("java") // Java support
     alias(libs.plugins.intelliJPlatform) // IntelliJ Platform Gradle Plugin
     alias(libs.plugins.changelog) // Gradle Changelog Plugin
+    alias(libs.plugins.jmh) // JMH benchmarks for the delimiter conversion hot path
 }
 
 group = providers.gradleProperty("pluginGroup").get()
@@ -34,6 +35,8 @@ repositories {
 
 // Dependencies are managed with Gradle version catalog - read more: https://docs.gradle.org/current/userguide/platforms.html#sub:version-catalog
 dependencies {
+    implementation(project(":delimiters-core"))
+
     testImplementation(libs.junit)
     testImplementation(libs.opentest4j)
 
@@ -124,6 +127,23 @@ changelog {
     repositoryUrl = providers.gradleProperty("pluginRepositoryUrl")
 }
 
+// Configure JMH - run with `./gradlew jmh`, narrow with e.g. `-PjmhIncludes=DelimiterConversionBenchmark.toStandard`
+jmh {
+    jmhVersion = libs.versions.jmh
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes = listOf(it) }
+    warmupIterations = 2
+    iterations = 3
+    fork = 1
+    // Allocation rate per operation (gc.alloc.rate.norm) next to ops/s and bytes/s
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("reports/jmh/results.json")
+}
+
+// FormattingGateBenchmark runs the format processors, so the benchmarks need the IntelliJ Platform classes
+configurations.named("jmhImplementation") {
+    extendsFrom(configurations.compileOnly.get())
+}
 
 tasks {
     wrapper {
@@ -0,0 +1,32 @@
+// Delimiter conversion engine with no IntelliJ Platform dependencies, usable from the plugin,
+// command-line tools and build pipelines alike
+plugins {
+    `java-library`
+    application // Command-line bulk converter - `./gradlew :delimiters-core:installDist`
+}
+
+group = providers.gradleProperty("pluginGroup").get()
+version = providers.gradleProperty("pluginVersion").get()
+
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+        vendor = JvmVendorSpec.AZUL
+    }
+}
+
+repositories {
+    mavenCentral()
+}
+
+application {
+    mainClass = "com.wedgwoodwebworks.jinja2customdelimiters.cli.DelimiterCli"
+    applicationName = "jinja2-delimiters"
+}
+
+dependencies {
+    compileOnly(libs.annotations)
+
+    testCompileOnly(libs.annotations)
+    testImplementation(libs.junit)
+}
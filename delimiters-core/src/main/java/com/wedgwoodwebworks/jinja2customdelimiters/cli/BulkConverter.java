@@ -0,0 +1,310 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.cli;
+
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterTranslator;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Converts or checks whole template trees with the same translator the IDE formatter uses.
+ *
+ * Directories are walked by a work-stealing {@link ForkJoinPool}: every directory is a task that
+ * forks its subdirectories and batches of files, so idle workers steal from deep trees. In check
+ * mode files are read through {@link FileChannel#map} (small files with a plain read, where mapping
+ * costs more than it saves). When converting they are read onto the heap instead, since a mapping
+ * stays open until it is garbage collected and Windows refuses to replace a mapped file. Changed
+ * files are written to a temporary file next to them and moved over the original, so an
+ * interrupted run never leaves a truncated template.
+ *
+ * Symbolic links inside a tree are not followed, so a link cannot make the run rewrite a file
+ * outside the tree. Roots given explicitly are followed. With more than one root every file is
+ * claimed by its real path first, so a file reached through two roots is converted once.
+ */
+public final class BulkConverter {
+
+    // Below this size a heap read is cheaper than setting up and tearing down a mapping
+    private static final long MAP_THRESHOLD = 16 * 1024;
+    private static final int FILES_PER_TASK = 32;
+
+    private static final ThreadLocal<CharsetDecoder> DECODER =
+        ThreadLocal.withInitial(StandardCharsets.UTF_8::newDecoder);
+
+    private final DelimiterTranslator translator;
+    private final Predicate<Path> fileFilter;
+    private final boolean check;
+    private final int parallelism;
+    private final Consumer<Path> changeListener;
+
+    /**
+     * @param fileFilter     selects the regular files to convert; directories starting with a dot are never entered
+     * @param check          report files that would change without writing them
+     * @param changeListener called from worker threads for every file that changed or would change
+     */
+    public BulkConverter(@NotNull DelimiterTranslator translator, @NotNull Predicate<Path> fileFilter,
+                         boolean check, int parallelism, @NotNull Consumer<Path> changeListener) {
+        this.translator = translator;
+        this.fileFilter = fileFilter;
+        this.check = check;
+        this.parallelism = parallelism;
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Processes the given files and directory trees.
+     */
+    @NotNull
+    public Result run(@NotNull List<Path> roots) {
+        // A single tree reaches every file once: links are not followed
+        Counters counters = new Counters(roots.size() > 1);
+        long started = System.nanoTime();
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Path> files = new ArrayList<>();
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (Path root : roots) {
+                if (Files.isDirectory(root)) {
+                    tasks.add(new DirectoryTask(root, counters));
+                } else {
+                    files.add(root);
+                }
+            }
+            if (!files.isEmpty()) {
+                tasks.add(new FileBatchTask(files, counters));
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+
+        return new Result(counters.files.sum(), counters.changed.sum(), counters.bytes.sum(),
+                          System.nanoTime() - started, new ArrayList<>(counters.failures));
+    }
+
+    private void process(Path file, Counters counters) {
+        try {
+            if (counters.claimed != null && !counters.claimed.add(file.toRealPath())) {
+                // Reached through another root as well; another task converts it
+                return;
+            }
+
+            String text;
+            long size;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("file too large (" + size + " bytes)");
+                }
+                text = DECODER.get().decode(read(channel, (int) size, check)).toString();
+            }
+
+            counters.files.increment();
+            counters.bytes.add(size);
+
+            DelimiterEdits edits = translator.collectEdits(text, 0, text.length());
+            if (edits.isEmpty()) {
+                return;
+            }
+
+            counters.changed.increment();
+            if (!check) {
+                replace(file, edits.applyTo(text));
+            }
+            changeListener.accept(file);
+        } catch (CharacterCodingException e) {
+            counters.failures.add(file + ": not valid UTF-8");
+        } catch (IOException | RuntimeException e) {
+            counters.failures.add(file + ": " + e.getMessage());
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, int size, boolean mayMap) throws IOException {
+        if (mayMap && size >= MAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Keep reading until the buffer is full or the file ends
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Replaces the file behind {@code file} in one atomic step, keeping its POSIX permissions.
+     */
+    private static void replace(Path file, String content) throws IOException {
+        Path target = file.toRealPath();
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+            PosixFileAttributeView attributes = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+            if (attributes != null) {
+                Files.setPosixFilePermissions(temp, attributes.readAttributes().permissions());
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private final Path directory;
+        private final Counters counters;
+
+        DirectoryTask(Path directory, Counters counters) {
+            this.directory = directory;
+            this.counters = counters;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>(FILES_PER_TASK);
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        if (!entry.getFileName().toString().startsWith(".")) {
+                            subtasks.add(new DirectoryTask(entry, counters));
+                        }
+                    } else if (Files.isRegularFile(entry, LinkOption.NOFOLLOW_LINKS) && fileFilter.test(entry)) {
+                        batch.add(entry);
+                        if (batch.size() == FILES_PER_TASK) {
+                            subtasks.add(new FileBatchTask(batch, counters));
+                            batch = new ArrayList<>(FILES_PER_TASK);
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                counters.failures.add(directory + ": " + e.getMessage());
+            }
+
+            if (!batch.isEmpty()) {
+                subtasks.add(new FileBatchTask(batch, counters));
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    private final class FileBatchTask extends RecursiveAction {
+        private final List<Path> files;
+        private final Counters counters;
+
+        FileBatchTask(List<Path> files, Counters counters) {
+            this.files = files;
+            this.counters = counters;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : files) {
+                process(file, counters);
+            }
+        }
+    }
+
+    private static final class Counters {
+        final LongAdder files = new LongAdder();
+        final LongAdder changed = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        // Real paths of the files processed so far, or null if no file can be reached twice
+        final Set<Path> claimed;
+
+        Counters(boolean claimTargets) {
+            claimed = claimTargets ? ConcurrentHashMap.newKeySet() : null;
+        }
+    }
+
+    /**
+     * Totals of a {@link #run}.
+     */
+    public static final class Result {
+        private final long files;
+        private final long changedFiles;
+        private final long bytes;
+        private final long elapsedNanos;
+        private final List<String> failures;
+
+        Result(long files, long changedFiles, long bytes, long elapsedNanos, List<String> failures) {
+            this.files = files;
+            this.changedFiles = changedFiles;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.failures = Collections.unmodifiableList(failures);
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        /**
+         * @return files that were rewritten, or in check mode would have been
+         */
+        public long getChangedFiles() {
+            return changedFiles;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return one "path: reason" message per file or directory that could not be processed
+         */
+        @NotNull
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        public double getFilesPerSecond() {
+            return files / seconds();
+        }
+
+        public double getMegabytesPerSecond() {
+            return bytes / (1024.0 * 1024.0) / seconds();
+        }
+
+        private double seconds() {
+            return Math.max(elapsedNanos, 1) / 1e9;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.cli;
+
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterTranslator;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * Command-line entry point converting or checking template trees without starting an IDE.
+ *
+ * Exit codes: 0 when everything is converted (or already consistent), 1 when check mode found
+ * files that would change, 2 for usage errors or files that could not be processed.
+ */
+public final class DelimiterCli {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_CHANGES_NEEDED = 1;
+    static final int EXIT_ERROR = 2;
+
+    private static final String DEFAULT_INCLUDES = "*.j2,*.jinja,*.jinja2,*.html";
+
+    private static final String USAGE =
+        "Usage: jinja2-delimiters [options] <file-or-directory>...\n" +
+        "\n" +
+        "Converts templates between custom and standard Jinja2 delimiters.\n" +
+        "\n" +
+        "Delimiters (default: standard Jinja2):\n" +
+        "  --block-start, --block-end, --variable-start, --variable-end,\n" +
+        "  --comment-start, --comment-end, --line-statement-prefix, --line-comment-prefix <text>\n" +
+        "\n" +
+        "Options:\n" +
+        "  --to-standard      convert custom delimiters to standard ones (default)\n" +
+        "  --from-standard    convert standard delimiters to the custom ones\n" +
+        "  --check            report files that would change and exit with 1, without writing\n" +
+        "  --include <globs>  comma-separated file name globs (default: " + DEFAULT_INCLUDES + ")\n" +
+        "  --threads <n>      worker threads (default: available processors)\n" +
+        "  --quiet            print only the summary\n";
+
+    private DelimiterCli() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(@NotNull String[] args, @NotNull PrintStream out, @NotNull PrintStream err) {
+        String[] delimiters = {"{%", "%}", "{{", "}}", "{#", "#}", "", ""};
+        String[] delimiterOptions = {"--block-start", "--block-end", "--variable-start", "--variable-end",
+                                     "--comment-start", "--comment-end",
+                                     "--line-statement-prefix", "--line-comment-prefix"};
+        boolean toStandard = true;
+        boolean check = false;
+        boolean quiet = false;
+        String includes = DEFAULT_INCLUDES;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> roots = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                int delimiter = indexOf(delimiterOptions, arg);
+                if (delimiter >= 0) {
+                    delimiters[delimiter] = value(args, ++i, arg);
+                } else if (arg.equals("--to-standard")) {
+                    toStandard = true;
+                } else if (arg.equals("--from-standard")) {
+                    toStandard = false;
+                } else if (arg.equals("--check")) {
+                    check = true;
+                } else if (arg.equals("--quiet")) {
+                    quiet = true;
+                } else if (arg.equals("--include")) {
+                    includes = value(args, ++i, arg);
+                } else if (arg.equals("--threads")) {
+                    threads = Integer.parseInt(value(args, ++i, arg));
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("--threads must be at least 1");
+                    }
+                } else if (arg.equals("--help") || arg.equals("-h")) {
+                    out.print(USAGE);
+                    return EXIT_OK;
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else {
+                    roots.add(Paths.get(arg));
+                }
+            }
+            if (roots.isEmpty()) {
+                throw new IllegalArgumentException("No files or directories given");
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.print(USAGE);
+            return EXIT_ERROR;
+        }
+
+        DelimiterProfile profile = new DelimiterProfile(delimiters[0], delimiters[1], delimiters[2], delimiters[3],
+                                                        delimiters[4], delimiters[5], delimiters[6], delimiters[7]);
+        if (profile.isStandard()) {
+            err.println("No custom delimiters given, nothing to convert");
+            err.print(USAGE);
+            return EXIT_ERROR;
+        }
+        DelimiterTranslator translator = toStandard ? profile.toStandard() : profile.fromStandard();
+
+        boolean verbose = !quiet;
+        String verb = check ? "would change: " : "converted: ";
+        BulkConverter converter = new BulkConverter(translator, fileFilter(includes), check, threads, file -> {
+            if (verbose) {
+                out.println(verb + file);
+            }
+        });
+        BulkConverter.Result result = converter.run(roots);
+
+        for (String failure : result.getFailures()) {
+            err.println("error: " + failure);
+        }
+        out.println(String.format(Locale.ROOT,
+            "%s %d files (%.1f MB) in %.2f s: %.0f files/s, %.1f MB/s; %d %s",
+            check ? "Checked" : "Processed", result.getFiles(), result.getBytes() / (1024.0 * 1024.0),
+            result.getElapsedNanos() / 1e9, result.getFilesPerSecond(), result.getMegabytesPerSecond(),
+            result.getChangedFiles(), check ? "would change" : "changed"));
+
+        if (!result.getFailures().isEmpty()) {
+            return EXIT_ERROR;
+        }
+        return check && result.getChangedFiles() > 0 ? EXIT_CHANGES_NEEDED : EXIT_OK;
+    }
+
+    /**
+     * Matches file names against comma-separated globs such as {@code *.j2,*.html}.
+     */
+    @NotNull
+    static Predicate<Path> fileFilter(@NotNull String globs) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String glob : globs.split(",")) {
+            if (!glob.trim().isEmpty()) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob.trim()));
+            }
+        }
+        return path -> {
+            Path name = path.getFileName();
+            for (PathMatcher matcher : matchers) {
+                if (name != null && matcher.matches(name)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int indexOf(String[] options, String arg) {
+        for (int i = 0; i < options.length; i++) {
+            if (options[i].equals(arg)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,132 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Ordered list of non-overlapping replacements produced by a {@link DelimiterTranslator}.
+ *
+ * Each edit covers exactly one delimiter, so applying the list touches only the delimiters that
+ * actually change instead of rewriting the whole range.
+ */
+public final class DelimiterEdits {
+
+    private int[] starts;
+    private int[] ends;
+    private String[] replacements;
+    private int size;
+    private int lengthDelta;
+
+    public DelimiterEdits() {
+        this(8);
+    }
+
+    public DelimiterEdits(int capacity) {
+        starts = new int[capacity];
+        ends = new int[capacity];
+        replacements = new String[capacity];
+    }
+
+    /**
+     * Appends an edit. Edits must be added in ascending offset order and must not overlap.
+     */
+    public void add(int start, int end, @NotNull String replacement) {
+        if (size == starts.length) {
+            int capacity = Math.max(8, size * 2);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            replacements = Arrays.copyOf(replacements, capacity);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        replacements[size] = replacement;
+        size++;
+        lengthDelta += replacement.length() - (end - start);
+    }
+
+    /**
+     * Appends all edits of {@code other}, which must all come after the edits already present.
+     */
+    void addAll(@NotNull DelimiterEdits other) {
+        int newSize = size + other.size;
+        if (newSize > starts.length) {
+            starts = Arrays.copyOf(starts, newSize);
+            ends = Arrays.copyOf(ends, newSize);
+            replacements = Arrays.copyOf(replacements, newSize);
+        }
+        System.arraycopy(other.starts, 0, starts, size, other.size);
+        System.arraycopy(other.ends, 0, ends, size, other.size);
+        System.arraycopy(other.replacements, 0, replacements, size, other.size);
+        size = newSize;
+        lengthDelta += other.lengthDelta;
+    }
+
+    /**
+     * Removes all edits, keeping the allocated capacity for reuse.
+     */
+    void clear() {
+        Arrays.fill(replacements, 0, size, null);
+        size = 0;
+        lengthDelta = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    @NotNull
+    public String getReplacement(int index) {
+        return replacements[index];
+    }
+
+    /**
+     * @return the change in text length after applying all edits
+     */
+    public int getLengthDelta() {
+        return lengthDelta;
+    }
+
+    /**
+     * Applies the edits to the text they were collected from.
+     *
+     * @return the edited text, or the original text when there are no edits
+     */
+    @NotNull
+    public String applyTo(@NotNull CharSequence text) {
+        return applyTo(text, 0, text.length());
+    }
+
+    /**
+     * Applies the edits to {@code text[start, end)}. Edit offsets are relative to {@code text},
+     * so this is the counterpart of {@link DelimiterTranslator#collectEdits} for a sub-range.
+     *
+     * @return the edited range
+     */
+    @NotNull
+    public String applyTo(@NotNull CharSequence text, int start, int end) {
+        if (size == 0) {
+            return text.subSequence(start, end).toString();
+        }
+
+        StringBuilder result = new StringBuilder(end - start + lengthDelta);
+        int copiedUpTo = start;
+        for (int i = 0; i < size; i++) {
+            result.append(text, copiedUpTo, starts[i]).append(replacements[i]);
+            copiedUpTo = ends[i];
+        }
+        return result.append(text, copiedUpTo, end).toString();
+    }
+}
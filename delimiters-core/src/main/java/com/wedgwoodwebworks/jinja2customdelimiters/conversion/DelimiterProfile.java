@@ -0,0 +1,171 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of a delimiter configuration together with its compiled translators.
+ *
+ * Profiles are built once whenever the settings change and then shared by all formatter threads,
+ * so the hot path reads a single reference and never recompiles or concatenates delimiters.
+ */
+public final class DelimiterProfile {
+
+    public static final DelimiterProfile STANDARD = new DelimiterProfile("{%", "%}", "{{", "}}", "{#", "#}", "", "");
+
+    private final String blockStart;
+    private final String blockEnd;
+    private final String variableStart;
+    private final String variableEnd;
+    private final String commentStart;
+    private final String commentEnd;
+    private final String lineStatementPrefix;
+    private final String lineCommentPrefix;
+
+    private final DelimiterTranslator toStandard;
+    private final DelimiterTranslator fromStandard;
+    private final int hash;
+
+    public DelimiterProfile(@NotNull String blockStart, @NotNull String blockEnd,
+                            @NotNull String variableStart, @NotNull String variableEnd,
+                            @NotNull String commentStart, @NotNull String commentEnd,
+                            @NotNull String lineStatementPrefix, @NotNull String lineCommentPrefix) {
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+        this.variableStart = variableStart;
+        this.variableEnd = variableEnd;
+        this.commentStart = commentStart;
+        this.commentEnd = commentEnd;
+        this.lineStatementPrefix = lineStatementPrefix;
+        this.lineCommentPrefix = lineCommentPrefix;
+        this.toStandard = DelimiterTranslator.toStandard(
+            blockStart, blockEnd, variableStart, variableEnd, commentStart, commentEnd,
+            lineStatementPrefix, lineCommentPrefix);
+        this.fromStandard = DelimiterTranslator.fromStandard(
+            blockStart, blockEnd, variableStart, variableEnd, commentStart, commentEnd);
+        this.hash = Objects.hash(blockStart, blockEnd, variableStart, variableEnd,
+                                 commentStart, commentEnd, lineStatementPrefix, lineCommentPrefix);
+    }
+
+    @NotNull
+    public String getBlockStart() {
+        return blockStart;
+    }
+
+    @NotNull
+    public String getBlockEnd() {
+        return blockEnd;
+    }
+
+    @NotNull
+    public String getVariableStart() {
+        return variableStart;
+    }
+
+    @NotNull
+    public String getVariableEnd() {
+        return variableEnd;
+    }
+
+    @NotNull
+    public String getCommentStart() {
+        return commentStart;
+    }
+
+    @NotNull
+    public String getCommentEnd() {
+        return commentEnd;
+    }
+
+    @NotNull
+    public String getLineStatementPrefix() {
+        return lineStatementPrefix;
+    }
+
+    @NotNull
+    public String getLineCommentPrefix() {
+        return lineCommentPrefix;
+    }
+
+    /**
+     * @return translator converting this profile's delimiters to standard Jinja2 delimiters
+     */
+    @NotNull
+    public DelimiterTranslator toStandard() {
+        return toStandard;
+    }
+
+    /**
+     * @return translator converting standard Jinja2 delimiters back to this profile's delimiters.
+     *         Line prefixes are not restored by it; the formatter reverts those from the sites
+     *         recorded by the pre-format pass
+     */
+    @NotNull
+    public DelimiterTranslator fromStandard() {
+        return fromStandard;
+    }
+
+    /**
+     * @return the regions of a template written with this profile's delimiters that
+     *         {@link #toStandard()} must leave unconverted
+     */
+    @NotNull
+    public ProtectedRegions findProtectedRegions(@NotNull CharSequence text) {
+        if (toStandard.isIdentity()) {
+            return ProtectedRegions.NONE;
+        }
+        return ProtectedRegions.find(text, new String[]{blockStart, blockEnd, variableStart, variableEnd,
+                                                        commentStart, commentEnd}, toStandard);
+    }
+
+    /**
+     * @return the regions of a template written with standard delimiters that
+     *         {@link #fromStandard()} must leave unconverted
+     */
+    @NotNull
+    public ProtectedRegions findStandardProtectedRegions(@NotNull CharSequence text) {
+        if (fromStandard.isIdentity()) {
+            return ProtectedRegions.NONE;
+        }
+        return ProtectedRegions.find(text, new String[]{"{%", "%}", "{{", "}}", "{#", "#}"}, fromStandard);
+    }
+
+    /**
+     * @return true if this profile uses the stock Jinja2 delimiters and no line prefixes
+     */
+    public boolean isStandard() {
+        return toStandard.isIdentity();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DelimiterProfile)) {
+            return false;
+        }
+        DelimiterProfile other = (DelimiterProfile) o;
+        return blockStart.equals(other.blockStart) &&
+               blockEnd.equals(other.blockEnd) &&
+               variableStart.equals(other.variableStart) &&
+               variableEnd.equals(other.variableEnd) &&
+               commentStart.equals(other.commentStart) &&
+               commentEnd.equals(other.commentEnd) &&
+               lineStatementPrefix.equals(other.lineStatementPrefix) &&
+               lineCommentPrefix.equals(other.lineCommentPrefix);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "block: " + blockStart + "/" + blockEnd +
+               ", variable: " + variableStart + "/" + variableEnd +
+               ", comment: " + commentStart + "/" + commentEnd;
+    }
+}
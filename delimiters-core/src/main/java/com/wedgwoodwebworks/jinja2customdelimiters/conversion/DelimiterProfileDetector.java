@@ -0,0 +1,103 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Decides from the start of a template whether it is written with the configured custom
+ * delimiters, so repositories mixing stock Jinja2 templates (Ansible), custom-delimiter templates
+ * (Salt) and LaTeX templates can share one configuration.
+ *
+ * Only the first {@link #SAMPLE_LENGTH} characters are read. A template using any delimiter that
+ * only the configured profile has is a custom template, even if it also contains standard
+ * delimiters (a Vue template inside a custom-delimiter template, say). A template with no such
+ * delimiter but with standard or LaTeX-style ({@code \BLOCK{}}, {@code \VAR{}}) delimiters is
+ * resolved to {@link DelimiterProfile#STANDARD}, i.e. left alone. LaTeX-style templates are not
+ * given a profile of their own: only one custom profile is configured, and LaTeX-style delimiters
+ * close every tag with the same {@code }}, which the round trip cannot tell apart. Templates with
+ * no delimiters in the sample keep the configured profile.
+ */
+public final class DelimiterProfileDetector {
+
+    public static final int SAMPLE_LENGTH = 16 * 1024;
+
+    private static final String[] STANDARD_OPENERS = {"{%", "{{", "{#"};
+    private static final String[] LATEX_OPENERS = {"\\BLOCK{", "\\VAR{", "\\#{"};
+
+    private DelimiterProfileDetector() {
+    }
+
+    /**
+     * @return {@code configured} or {@link DelimiterProfile#STANDARD}
+     */
+    @NotNull
+    public static DelimiterProfile detect(@NotNull CharSequence text, @NotNull DelimiterProfile configured) {
+        if (configured.isStandard()) {
+            return configured;
+        }
+        int sampleEnd = Math.min(text.length(), SAMPLE_LENGTH);
+        if (usesCustomDelimiters(text, sampleEnd, configured)) {
+            return configured;
+        }
+        if (containsAny(text, sampleEnd, STANDARD_OPENERS) || containsAny(text, sampleEnd, LATEX_OPENERS)) {
+            return DelimiterProfile.STANDARD;
+        }
+        return configured;
+    }
+
+    private static boolean usesCustomDelimiters(CharSequence text, int sampleEnd, DelimiterProfile profile) {
+        String[] openers = {profile.getBlockStart(), profile.getVariableStart(), profile.getCommentStart()};
+        for (int i = 0; i < openers.length; i++) {
+            // Openers shared with the standard profile say nothing about the template
+            for (String standard : STANDARD_OPENERS) {
+                if (openers[i].equals(standard)) {
+                    openers[i] = "";
+                }
+            }
+        }
+        return containsAny(text, sampleEnd, openers) ||
+               startsAnyLine(text, sampleEnd, profile.getLineStatementPrefix()) ||
+               startsAnyLine(text, sampleEnd, profile.getLineCommentPrefix());
+    }
+
+    private static boolean containsAny(CharSequence text, int sampleEnd, String[] patterns) {
+        for (int offset = 0; offset < sampleEnd; offset++) {
+            for (String pattern : patterns) {
+                if (startsWith(text, offset, pattern)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsAnyLine(CharSequence text, int sampleEnd, String prefix) {
+        if (prefix.isEmpty()) {
+            return false;
+        }
+        boolean lineStart = true;
+        for (int offset = 0; offset < sampleEnd; offset++) {
+            char c = text.charAt(offset);
+            if (c == '\n' || c == '\r') {
+                lineStart = true;
+            } else if (lineStart && !Character.isWhitespace(c)) {
+                if (startsWith(text, offset, prefix)) {
+                    return true;
+                }
+                lineStart = false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(CharSequence text, int offset, String pattern) {
+        if (pattern.isEmpty() || offset + pattern.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            if (text.charAt(offset + i) != pattern.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
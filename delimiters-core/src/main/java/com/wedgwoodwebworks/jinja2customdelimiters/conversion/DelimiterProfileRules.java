@@ -0,0 +1,163 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Path rules choosing the delimiter profile of a template, such as {@code [% %]} for the
+ * {@code .sls} files below {@code salt/}, compiled into a single regular expression.
+ *
+ * Paths are relative and separated by {@code /}. In a pattern, {@code *} matches within one path
+ * segment, {@code ?} matches one character other than {@code /}, {@code {a,b}} matches either
+ * alternative and a {@code **} segment matches any number of directories. A pattern without a
+ * {@code /} matches the file name in any directory, and a trailing {@code /} matches everything
+ * below the directory. The first matching rule wins.
+ */
+public final class DelimiterProfileRules {
+
+    public static final DelimiterProfileRules EMPTY = new DelimiterProfileRules(null, new DelimiterProfile[0]);
+
+    // One capturing group per rule, alternatives in rule order
+    private final Pattern pattern;
+    private final DelimiterProfile[] profiles;
+
+    private DelimiterProfileRules(Pattern pattern, DelimiterProfile[] profiles) {
+        this.pattern = pattern;
+        this.profiles = profiles;
+    }
+
+    /**
+     * @param rules patterns and their profiles, in the order they are tried
+     * @throws IllegalArgumentException if a pattern is malformed
+     */
+    @NotNull
+    public static DelimiterProfileRules compile(@NotNull Map<String, DelimiterProfile> rules) {
+        if (rules.isEmpty()) {
+            return EMPTY;
+        }
+        StringBuilder regex = new StringBuilder();
+        DelimiterProfile[] profiles = new DelimiterProfile[rules.size()];
+        int i = 0;
+        for (Map.Entry<String, DelimiterProfile> rule : rules.entrySet()) {
+            if (i > 0) {
+                regex.append('|');
+            }
+            regex.append('(').append(globToRegex(rule.getKey())).append(')');
+            profiles[i++] = rule.getValue();
+        }
+        return new DelimiterProfileRules(Pattern.compile(regex.toString()), profiles);
+    }
+
+    /**
+     * @throws IllegalArgumentException with a message for the user if {@code glob} is malformed
+     */
+    public static void checkGlob(@NotNull String glob) {
+        globToRegex(glob);
+    }
+
+    /**
+     * @param relativePath {@code /}-separated path of the template
+     * @return the profile of the first matching rule, or null if no rule matches
+     */
+    @Nullable
+    public DelimiterProfile find(@NotNull CharSequence relativePath) {
+        if (pattern == null) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher(relativePath);
+        if (!matcher.matches()) {
+            return null;
+        }
+        for (int i = 0; i < profiles.length; i++) {
+            if (matcher.start(i + 1) >= 0) {
+                return profiles[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return profiles.length == 0;
+    }
+
+    public int size() {
+        return profiles.length;
+    }
+
+    static String globToRegex(String glob) {
+        String path = glob.trim();
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Pattern cannot be empty");
+        }
+        if (path.endsWith("/")) {
+            path += "**";
+        }
+
+        StringBuilder regex = new StringBuilder();
+        if (path.indexOf('/') < 0 && !path.equals("**")) {
+            // File name pattern: any directory
+            regex.append("(?:.*/)?");
+        }
+        String[] segments = path.split("/", -1);
+        boolean needSlash = false;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.equals("**")) {
+                boolean last = i == segments.length - 1;
+                if (last) {
+                    regex.append(needSlash ? "(?:/.*)?" : ".*");
+                } else {
+                    regex.append(needSlash ? "/(?:.*/)?" : "(?:.*/)?");
+                }
+                needSlash = false;
+                continue;
+            }
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Pattern \"" + glob + "\" contains an empty path segment");
+            }
+            if (needSlash) {
+                regex.append('/');
+            }
+            appendSegment(regex, segment, glob);
+            needSlash = true;
+        }
+        return regex.toString();
+    }
+
+    private static void appendSegment(StringBuilder regex, String segment, String glob) {
+        boolean inAlternatives = false;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '{') {
+                if (inAlternatives) {
+                    throw new IllegalArgumentException("Pattern \"" + glob + "\" nests '{'");
+                }
+                regex.append("(?:");
+                inAlternatives = true;
+            } else if (c == ',' && inAlternatives) {
+                regex.append('|');
+            } else if (c == '}' && inAlternatives) {
+                regex.append(')');
+                inAlternatives = false;
+            } else if (Character.isLetterOrDigit(c)) {
+                regex.append(c);
+            } else {
+                regex.append('\\').append(c);
+            }
+        }
+        if (inAlternatives) {
+            throw new IllegalArgumentException("Pattern \"" + glob + "\" has an unclosed '{'");
+        }
+    }
+}
@@ -0,0 +1,752 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Compiled single-pass translator between two sets of Jinja2 delimiters.
+ *
+ * All six delimiters and their whitespace-control variants ({@code [%-}, {@code -%]}, ...) are
+ * compiled into one trie, so a whole range is translated in a single scan using longest-match
+ * semantics. Because every position is matched against all delimiters at once, a custom delimiter
+ * that is a prefix of another one (e.g. {@code <%} and {@code <%=}) no longer depends on the order
+ * in which replacements are applied.
+ *
+ * Line statement and line comment prefixes ({@code %% for x in y}) are recognised in the same
+ * scan: only the first non-blank character of each line is checked against them, and the line is
+ * closed with the matching standard delimiter at its end.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public final class DelimiterTranslator {
+
+    static final String[] STANDARD_DELIMITERS = {"{%", "%}", "{{", "}}", "{#", "#}"};
+
+    /**
+     * Characters scanned between two calls of a cancellation check.
+     */
+    public static final int CANCELLATION_CHECK_INTERVAL = 64 * 1024;
+
+    private static final char[] WHITESPACE_CONTROL_MARKERS = {'-', '+'};
+    private static final Runnable NO_CANCELLATION = () -> {
+    };
+    private static final int NO_NODE = -1;
+
+    // Trie nodes stored as parallel arrays; node 0 is the root
+    private final char[] label;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] terminal;
+
+    // Entries reached through terminal nodes
+    private final String[] patterns;
+    private final String[] replacements;
+    private final int[] editOffsets;
+    private final int[] editLengths;
+    private final boolean[] rewrites;
+
+    // Line prefixes with the opening and closing delimiters they are rewritten to
+    private final String[] linePrefixes;
+    private final String[] lineOpeners;
+    private final String[] lineClosers;
+
+    private final boolean[] asciiStart;
+    private final boolean nonAsciiStart;
+    // Characters occurring anywhere in a pattern; a match never spans any other character
+    private final boolean[] asciiInPattern;
+    private final boolean nonAsciiInPattern;
+    private final boolean lineBreakInPattern;
+    private final int maxPatternLength;
+    private final boolean identity;
+
+    private DelimiterTranslator(Builder builder) {
+        label = Arrays.copyOf(builder.label, builder.nodeCount);
+        firstChild = Arrays.copyOf(builder.firstChild, builder.nodeCount);
+        nextSibling = Arrays.copyOf(builder.nextSibling, builder.nodeCount);
+        terminal = Arrays.copyOf(builder.terminal, builder.nodeCount);
+        patterns = builder.patterns;
+        replacements = builder.replacements;
+        editOffsets = builder.editOffsets;
+        editLengths = builder.editLengths;
+        rewrites = builder.rewrites;
+        linePrefixes = builder.linePrefixes;
+        lineOpeners = builder.lineOpeners;
+        lineClosers = builder.lineClosers;
+        asciiStart = builder.asciiStart.clone();
+        nonAsciiStart = builder.nonAsciiStart;
+        asciiInPattern = builder.asciiInPattern.clone();
+        nonAsciiInPattern = builder.nonAsciiInPattern;
+        lineBreakInPattern = builder.lineBreakInPattern;
+        maxPatternLength = builder.maxPatternLength;
+        identity = builder.identity;
+    }
+
+    /**
+     * Compiles a translator from custom delimiters to the standard Jinja2 delimiters.
+     */
+    @NotNull
+    public static DelimiterTranslator toStandard(@NotNull String blockStart, @NotNull String blockEnd,
+                                                 @NotNull String variableStart, @NotNull String variableEnd,
+                                                 @NotNull String commentStart, @NotNull String commentEnd) {
+        String[] custom = {blockStart, blockEnd, variableStart, variableEnd, commentStart, commentEnd};
+        return compile(custom, STANDARD_DELIMITERS);
+    }
+
+    /**
+     * Compiles a translator from custom delimiters and line prefixes to the standard Jinja2
+     * delimiters. A line starting with a prefix becomes a {@code {% ... %}} block or a
+     * {@code {# ... #}} comment. Empty prefixes are ignored.
+     */
+    @NotNull
+    public static DelimiterTranslator toStandard(@NotNull String blockStart, @NotNull String blockEnd,
+                                                 @NotNull String variableStart, @NotNull String variableEnd,
+                                                 @NotNull String commentStart, @NotNull String commentEnd,
+                                                 @NotNull String lineStatementPrefix, @NotNull String lineCommentPrefix) {
+        String[] custom = {blockStart, blockEnd, variableStart, variableEnd, commentStart, commentEnd};
+        Builder builder = builder(custom, STANDARD_DELIMITERS);
+        builder.addLinePrefix(lineStatementPrefix, STANDARD_DELIMITERS[0], " " + STANDARD_DELIMITERS[1]);
+        builder.addLinePrefix(lineCommentPrefix, STANDARD_DELIMITERS[4], " " + STANDARD_DELIMITERS[5]);
+        return builder.build();
+    }
+
+    /**
+     * Compiles a translator from the standard Jinja2 delimiters back to custom delimiters.
+     */
+    @NotNull
+    public static DelimiterTranslator fromStandard(@NotNull String blockStart, @NotNull String blockEnd,
+                                                   @NotNull String variableStart, @NotNull String variableEnd,
+                                                   @NotNull String commentStart, @NotNull String commentEnd) {
+        String[] custom = {blockStart, blockEnd, variableStart, variableEnd, commentStart, commentEnd};
+        return compile(STANDARD_DELIMITERS, custom);
+    }
+
+    /**
+     * Compiles a translator for the given delimiters, ordered as block start/end, variable start/end,
+     * comment start/end. Even indices are opening delimiters, odd indices are closing delimiters.
+     *
+     * When two delimiters are identical the one registered first wins. Empty delimiters are ignored.
+     */
+    @NotNull
+    static DelimiterTranslator compile(@NotNull String[] sources, @NotNull String[] targets) {
+        return builder(sources, targets).build();
+    }
+
+    private static Builder builder(String[] sources, String[] targets) {
+        Builder translator = new Builder();
+
+        // Plain delimiters first so they take precedence over an identical whitespace-control variant
+        for (int i = 0; i < sources.length; i++) {
+            translator.addEntry(sources[i], targets[i], 0, sources[i].length());
+        }
+
+        for (int i = 0; i < sources.length; i++) {
+            String source = sources[i];
+            if (source.isEmpty()) {
+                continue;
+            }
+            boolean opening = i % 2 == 0;
+            for (char marker : WHITESPACE_CONTROL_MARKERS) {
+                // Handle: [%-, [%+ and -%], +%]
+                if (opening) {
+                    translator.addEntry(source + marker, targets[i], 0, source.length());
+                } else {
+                    translator.addEntry(marker + source, targets[i], 1, source.length());
+                }
+            }
+        }
+
+        return translator;
+    }
+
+    /**
+     * @return true if translating never changes the text
+     */
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    /**
+     * Translates all delimiters in the given text in a single pass.
+     *
+     * @return the translated text, or the original text when nothing was replaced
+     */
+    @NotNull
+    public String translate(@NotNull CharSequence text) {
+        if (identity) {
+            return text.toString();
+        }
+        return collectEdits(text, 0, text.length()).applyTo(text);
+    }
+
+    /**
+     * Scans {@code text[start, end)} once and records an edit for every delimiter that changes.
+     * Whitespace-control markers are left outside the edits, so each edit covers one delimiter.
+     *
+     * A line prefix is replaced by an edit over the prefix plus an insertion of the closing
+     * delimiter at the end of the line. Prefixed lines that continue past {@code end} are left
+     * alone, since their closing delimiter would fall outside the range.
+     */
+    @NotNull
+    public DelimiterEdits collectEdits(@NotNull CharSequence text, int start, int end) {
+        return collectEdits(text, start, end, NO_CANCELLATION);
+    }
+
+    /**
+     * Same as {@link #collectEdits(CharSequence, int, int)}, but runs {@code cancellationCheck}
+     * before every {@value #CANCELLATION_CHECK_INTERVAL} characters, so a long scan can be aborted
+     * by throwing from it (e.g. {@code ProgressManager::checkCanceled}).
+     */
+    @NotNull
+    public DelimiterEdits collectEdits(@NotNull CharSequence text, int start, int end,
+                                       @NotNull Runnable cancellationCheck) {
+        DelimiterEdits edits = new DelimiterEdits();
+        if (!identity) {
+            collectInto(text, start, end, cancellationCheck, edits);
+        }
+        return edits;
+    }
+
+    /**
+     * Same as {@link #collectEdits(CharSequence, int, int)}, but leaves the
+     * {@code protectedRegions} of the text unscanned.
+     */
+    @NotNull
+    public DelimiterEdits collectEdits(@NotNull CharSequence text, int start, int end,
+                                       @NotNull ProtectedRegions protectedRegions) {
+        return collectEdits(text, start, end, NO_CANCELLATION, protectedRegions);
+    }
+
+    /**
+     * Same as {@link #collectEdits(CharSequence, int, int, Runnable)}, but leaves the
+     * {@code protectedRegions} of the text unscanned. The text between two regions is scanned as
+     * a range of its own, so a prefixed line cut by a region is left alone.
+     */
+    @NotNull
+    public DelimiterEdits collectEdits(@NotNull CharSequence text, int start, int end,
+                                       @NotNull Runnable cancellationCheck,
+                                       @NotNull ProtectedRegions protectedRegions) {
+        DelimiterEdits edits = new DelimiterEdits();
+        if (identity) {
+            return edits;
+        }
+
+        int offset = start;
+        for (int i = protectedRegions.firstEndingAfter(start);
+             i < protectedRegions.size() && protectedRegions.getStart(i) < end; i++) {
+            if (offset < protectedRegions.getStart(i)) {
+                collectInto(text, offset, protectedRegions.getStart(i), cancellationCheck, edits);
+            }
+            offset = Math.max(offset, protectedRegions.getEnd(i));
+        }
+        if (offset < end) {
+            collectInto(text, offset, end, cancellationCheck, edits);
+        }
+        return edits;
+    }
+
+    private void collectInto(CharSequence text, int start, int end, Runnable cancellationCheck, DelimiterEdits edits) {
+        ScanState state = new ScanState(true, isLineStart(text, start));
+        int offset = start;
+        while (offset < end) {
+            cancellationCheck.run();
+            int sliceEnd = end - offset > CANCELLATION_CHECK_INTERVAL ? offset + CANCELLATION_CHECK_INTERVAL : end;
+            offset = scan(text, offset, sliceEnd, end, state, edits);
+        }
+        if (state.lineCloser != null) {
+            edits.add(end, end, state.lineCloser);
+        }
+    }
+
+    /**
+     * Moves the start of a range back to the nearest offset no delimiter can span, so a delimiter
+     * cut by the start is scanned whole. On a line starting with a line prefix this is the start of
+     * the line, since the prefix decides how the rest of the line converts; otherwise it moves back
+     * over the delimiter characters just before the offset.
+     */
+    public int expandStart(@NotNull CharSequence text, int start) {
+        if (!tracksLinesOnly()) {
+            while (start > 0 && !isScanBreak(text.charAt(start - 1))) {
+                start--;
+            }
+            return start;
+        }
+        int lineStart = findLineStart(text, start);
+        if (isPrefixedLine(text, lineStart)) {
+            return lineStart;
+        }
+        while (start > lineStart && !isDelimiterBreak(text.charAt(start - 1))) {
+            start--;
+        }
+        return start;
+    }
+
+    /**
+     * Moves the end of a range forward to the nearest offset no delimiter can span, so a delimiter
+     * cut by the end is scanned whole: the end of the line on a line starting with a line prefix,
+     * where its closer goes, otherwise the end of the delimiter characters at the offset.
+     */
+    public int expandEnd(@NotNull CharSequence text, int end) {
+        if (end > 0 && isScanBreak(text.charAt(end - 1))) {
+            return end;
+        }
+        if (!tracksLinesOnly()) {
+            while (end < text.length() && !isScanBreak(text.charAt(end))) {
+                end++;
+            }
+            return end;
+        }
+        int lineStart = findLineStart(text, end);
+        if (isPrefixedLine(text, lineStart)) {
+            while (end < text.length() && !isScanBreak(text.charAt(end))) {
+                end++;
+            }
+            return end;
+        }
+        if (end > lineStart && isDelimiterBreak(text.charAt(end - 1))) {
+            return end;
+        }
+        while (end < text.length() && !isDelimiterBreak(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @return true if line prefixes are configured and no pattern holds a line break, so lines
+     *         without a prefix can be cut at delimiter boundaries like text without prefixes
+     */
+    private boolean tracksLinesOnly() {
+        return linePrefixes.length > 0 && !lineBreakInPattern;
+    }
+
+    /**
+     * @return true if the line starting at {@code lineStart} may be a prefixed line; an inline
+     *         delimiter winning over the prefix still counts, which only widens a range more
+     */
+    private boolean isPrefixedLine(CharSequence text, int lineStart) {
+        int offset = lineStart;
+        while (offset < text.length() && (text.charAt(offset) == ' ' || text.charAt(offset) == '\t')) {
+            offset++;
+        }
+        return matchLinePrefix(text, offset, text.length()) != NO_NODE;
+    }
+
+    /**
+     * @return true if no inline delimiter can span this character, ignoring line prefixes
+     */
+    private boolean isDelimiterBreak(char c) {
+        if (c == '\n' || c == '\r') {
+            return !lineBreakInPattern;
+        }
+        return c < 128 ? !asciiInPattern[c] : !nonAsciiInPattern;
+    }
+
+    /**
+     * @return true if a scan starting at {@code offset} records the same edits as a scan of the
+     *         whole text does from there
+     */
+    boolean isStartBoundary(@NotNull CharSequence text, int offset) {
+        return offset == 0 || isScanBreak(text.charAt(offset - 1));
+    }
+
+    /**
+     * @return true if a scan ending at {@code offset} records the same edits as a scan of the
+     *         whole text does up to there, including the closer of a prefixed line ending there
+     */
+    boolean isEndBoundary(@NotNull CharSequence text, int offset) {
+        return offset == text.length() || offset > 0 && isScanBreak(text.charAt(offset - 1)) ||
+               isScanBreak(text.charAt(offset));
+    }
+
+    /**
+     * Scans {@code text[start, end)} without cancellation checks, appending to {@code edits}.
+     */
+    void scanRange(@NotNull CharSequence text, int start, int end, @NotNull DelimiterEdits edits) {
+        ScanState state = new ScanState(true, isLineStart(text, start));
+        int offset = start;
+        while (offset < end) {
+            offset = scan(text, offset, end, end, state, edits);
+        }
+        if (state.lineCloser != null) {
+            edits.add(end, end, state.lineCloser);
+        }
+    }
+
+    /**
+     * @return true if a delimiter or line prefix this translator rewrites may start with {@code c}
+     */
+    boolean canStartMatch(char c) {
+        if (c < 128 ? asciiStart[c] : nonAsciiStart) {
+            return true;
+        }
+        for (String prefix : linePrefixes) {
+            if (prefix.charAt(0) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if no match can span this character, so the scan state after it does not
+     *         depend on the text before it
+     */
+    boolean isScanBreak(char c) {
+        if (c == '\n' || c == '\r') {
+            return !lineBreakInPattern;
+        }
+        if (linePrefixes.length > 0) {
+            // Whether a line is prefixed depends on its start
+            return false;
+        }
+        return c < 128 ? !asciiInPattern[c] : !nonAsciiInPattern;
+    }
+
+    /**
+     * Records edits for the delimiters starting in {@code text[start, scanLimit)}; a match may read
+     * up to {@code end}. Line state is read from and written back to {@code state}, so a streaming
+     * caller can resume the scan in the next chunk.
+     *
+     * @return the offset where scanning stopped, at or after {@code scanLimit} when a match
+     *         extended past it
+     */
+    int scan(@NotNull CharSequence text, int start, int scanLimit, int end,
+             @NotNull ScanState state, @NotNull DelimiterEdits edits) {
+        boolean trackLines = linePrefixes.length > 0;
+        boolean atLineStart = state.atLineStart;
+        String lineCloser = state.lineCloser;
+
+        int offset = start;
+        while (offset < scanLimit) {
+            if (trackLines) {
+                char c = text.charAt(offset);
+                if (c == '\n' || c == '\r') {
+                    if (lineCloser != null) {
+                        edits.add(offset, offset, lineCloser);
+                        lineCloser = null;
+                    }
+                    atLineStart = true;
+                    offset++;
+                    continue;
+                }
+                if (atLineStart) {
+                    if (c == ' ' || c == '\t') {
+                        offset++;
+                        continue;
+                    }
+                    atLineStart = false;
+
+                    int prefix = matchLinePrefix(text, offset, end);
+                    if (prefix != NO_NODE) {
+                        int prefixEnd = offset + linePrefixes[prefix].length();
+                        int entry = matchAt(text, offset, end, false);
+                        // An inline delimiter longer than the prefix wins, as in the Jinja2 lexer
+                        if ((entry == NO_NODE || patterns[entry].length() <= linePrefixes[prefix].length()) &&
+                            (!state.bounded || findLineEnd(text, prefixEnd, end) != NO_NODE)) {
+                            edits.add(offset, prefixEnd, lineOpeners[prefix]);
+                            lineCloser = lineClosers[prefix];
+                            offset = prefixEnd;
+                            continue;
+                        }
+                    }
+                }
+            }
+
+            // A match may not run past the line break of a prefixed line, so the closer stays in order
+            int entry = matchAt(text, offset, end, lineCloser != null);
+            if (entry == NO_NODE) {
+                offset++;
+                continue;
+            }
+
+            if (rewrites[entry]) {
+                int editStart = offset + editOffsets[entry];
+                edits.add(editStart, editStart + editLengths[entry], replacements[entry]);
+            }
+
+            offset += patterns[entry].length();
+        }
+
+        state.atLineStart = atLineStart;
+        state.lineCloser = lineCloser;
+        return offset;
+    }
+
+    /**
+     * @return the length of the longest pattern or line prefix, which bounds how far a single
+     *         match can read ahead
+     */
+    int getMaxPatternLength() {
+        return maxPatternLength;
+    }
+
+    /**
+     * @return the index of the longest line prefix at the given offset, or -1 if none matches
+     */
+    private int matchLinePrefix(CharSequence text, int offset, int limit) {
+        int best = NO_NODE;
+        for (int i = 0; i < linePrefixes.length; i++) {
+            String prefix = linePrefixes[i];
+            if (offset + prefix.length() <= limit && startsWith(text, offset, prefix) &&
+                (best == NO_NODE || prefix.length() > linePrefixes[best].length())) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static boolean startsWith(CharSequence text, int offset, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if only blanks separate the offset from the start of its line
+     */
+    private static boolean isLineStart(CharSequence text, int offset) {
+        for (int i = offset - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return true;
+            }
+            if (c != ' ' && c != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the offset just after the line break before {@code offset}, or 0 on the first line
+     */
+    private static int findLineStart(CharSequence text, int offset) {
+        for (int i = offset - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the offset of the line break ending the line (which may be {@code limit} itself), the
+     *         end of the text if it is the last line, or -1 if the line continues past {@code limit}
+     */
+    private static int findLineEnd(CharSequence text, int offset, int limit) {
+        for (int i = offset; i < limit; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return i;
+            }
+        }
+        if (limit == text.length() || text.charAt(limit) == '\n' || text.charAt(limit) == '\r') {
+            return limit;
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * Finds the longest delimiter pattern starting at the given offset.
+     *
+     * @return the entry index, or -1 if no delimiter starts at this offset
+     */
+    private int matchAt(CharSequence text, int offset, int limit, boolean singleLine) {
+        char first = text.charAt(offset);
+        if (first < 128 ? !asciiStart[first] : !nonAsciiStart) {
+            return NO_NODE;
+        }
+
+        int node = 0;
+        int best = NO_NODE;
+        for (int i = offset; i < limit; i++) {
+            char c = text.charAt(i);
+            if (singleLine && (c == '\n' || c == '\r')) {
+                break;
+            }
+            node = findChild(node, c);
+            if (node == NO_NODE) {
+                break;
+            }
+            if (terminal[node] != NO_NODE) {
+                best = terminal[node];
+            }
+        }
+        return best;
+    }
+
+    private int findChild(int node, char c) {
+        for (int child = firstChild[node]; child != NO_NODE; child = nextSibling[child]) {
+            if (label[child] == c) {
+                return child;
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * Line state carried between the chunks of a scan.
+     */
+    static final class ScanState {
+        // True when the scanned range may end mid-line, false when it runs to the end of the input
+        final boolean bounded;
+        boolean atLineStart;
+        // Closer still owed to the prefixed line being scanned, or null
+        String lineCloser;
+
+        ScanState(boolean bounded, boolean atLineStart) {
+            this.bounded = bounded;
+            this.atLineStart = atLineStart;
+        }
+    }
+
+    /**
+     * Collects the trie and line prefixes of a translator before it is published.
+     */
+    private static final class Builder {
+        private char[] label = new char[16];
+        private int[] firstChild = new int[16];
+        private int[] nextSibling = new int[16];
+        private int[] terminal = new int[16];
+        private int nodeCount = 1;
+
+        private String[] patterns = new String[0];
+        private String[] replacements = new String[0];
+        private int[] editOffsets = new int[0];
+        private int[] editLengths = new int[0];
+        private boolean[] rewrites = new boolean[0];
+
+        private String[] linePrefixes = new String[0];
+        private String[] lineOpeners = new String[0];
+        private String[] lineClosers = new String[0];
+
+        private final boolean[] asciiStart = new boolean[128];
+        private boolean nonAsciiStart;
+        private final boolean[] asciiInPattern = new boolean[128];
+        private boolean nonAsciiInPattern;
+        private boolean lineBreakInPattern;
+        private int maxPatternLength;
+        private boolean identity = true;
+
+        Builder() {
+            firstChild[0] = NO_NODE;
+            nextSibling[0] = NO_NODE;
+            terminal[0] = NO_NODE;
+        }
+
+        DelimiterTranslator build() {
+            return new DelimiterTranslator(this);
+        }
+
+        private void addEntry(String pattern, String replacement, int editOffset, int editLength) {
+            if (pattern.isEmpty() || editLength == 0) {
+                return;
+            }
+
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                int child = findChild(node, c);
+                if (child == NO_NODE) {
+                    child = newNode(c);
+                    nextSibling[child] = firstChild[node];
+                    firstChild[node] = child;
+                }
+                node = child;
+            }
+
+            if (terminal[node] != NO_NODE) {
+                return; // First registration wins
+            }
+
+            int entry = patterns.length;
+            patterns = Arrays.copyOf(patterns, entry + 1);
+            replacements = Arrays.copyOf(replacements, entry + 1);
+            editOffsets = Arrays.copyOf(editOffsets, entry + 1);
+            editLengths = Arrays.copyOf(editLengths, entry + 1);
+            rewrites = Arrays.copyOf(rewrites, entry + 1);
+            patterns[entry] = pattern;
+            replacements[entry] = replacement;
+            editOffsets[entry] = editOffset;
+            editLengths[entry] = editLength;
+            rewrites[entry] = replacement.length() != editLength
+                || !pattern.regionMatches(editOffset, replacement, 0, editLength);
+            terminal[node] = entry;
+            maxPatternLength = Math.max(maxPatternLength, pattern.length());
+
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    lineBreakInPattern = true;
+                }
+                if (c < 128) {
+                    asciiInPattern[c] = true;
+                } else {
+                    nonAsciiInPattern = true;
+                }
+            }
+
+            char first = pattern.charAt(0);
+            if (first < 128) {
+                asciiStart[first] = true;
+            } else {
+                nonAsciiStart = true;
+            }
+
+            if (rewrites[entry]) {
+                identity = false;
+            }
+        }
+
+        private void addLinePrefix(String prefix, String opener, String closer) {
+            if (prefix.isEmpty()) {
+                return;
+            }
+            for (String existing : linePrefixes) {
+                if (existing.equals(prefix)) {
+                    return; // First registration wins
+                }
+            }
+
+            int index = linePrefixes.length;
+            linePrefixes = Arrays.copyOf(linePrefixes, index + 1);
+            lineOpeners = Arrays.copyOf(lineOpeners, index + 1);
+            lineClosers = Arrays.copyOf(lineClosers, index + 1);
+            linePrefixes[index] = prefix;
+            lineOpeners[index] = opener;
+            lineClosers[index] = closer;
+            maxPatternLength = Math.max(maxPatternLength, prefix.length());
+            identity = false;
+        }
+
+        private int findChild(int node, char c) {
+            for (int child = firstChild[node]; child != NO_NODE; child = nextSibling[child]) {
+                if (label[child] == c) {
+                    return child;
+                }
+            }
+            return NO_NODE;
+        }
+
+        private int newNode(char c) {
+            if (nodeCount == label.length) {
+                int capacity = nodeCount * 2;
+                label = Arrays.copyOf(label, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                terminal = Arrays.copyOf(terminal, capacity);
+            }
+            int node = nodeCount++;
+            label[node] = c;
+            firstChild[node] = NO_NODE;
+            nextSibling[node] = NO_NODE;
+            terminal[node] = NO_NODE;
+            return node;
+        }
+    }
+}
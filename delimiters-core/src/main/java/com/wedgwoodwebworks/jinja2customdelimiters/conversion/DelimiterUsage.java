@@ -0,0 +1,143 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * How many custom and standard delimiters a template contains, for telling templates that still
+ * need migrating from ones already converted, or using both.
+ *
+ * Counts are of the delimiters the profile's translators would rewrite outside protected regions.
+ * The template may be written in either delimiters, so a delimiter is only counted if it is outside
+ * the protected regions of both. A line prefix counts as one custom delimiter. Under the standard
+ * profile nothing is rewritten, so every count is zero.
+ */
+public final class DelimiterUsage {
+
+    public static final DelimiterUsage NONE = new DelimiterUsage(0, 0, 0);
+
+    private final int customCount;
+    private final int standardCount;
+    private final int whitespaceControlCount;
+
+    public DelimiterUsage(int customCount, int standardCount, int whitespaceControlCount) {
+        this.customCount = customCount;
+        this.standardCount = standardCount;
+        this.whitespaceControlCount = whitespaceControlCount;
+    }
+
+    /**
+     * Counts the delimiters of {@code text} with one scan per direction.
+     */
+    @NotNull
+    public static DelimiterUsage count(@NotNull CharSequence text, @NotNull DelimiterProfile profile) {
+        if (profile.isStandard()) {
+            return NONE;
+        }
+        String[] customDelimiters = {profile.getBlockStart(), profile.getBlockEnd(), profile.getVariableStart(),
+                                     profile.getVariableEnd(), profile.getCommentStart(), profile.getCommentEnd()};
+        String[] standardDelimiters = {"{%", "%}", "{{", "}}", "{#", "#}"};
+        DelimiterTranslator toStandard = profile.toStandard();
+        DelimiterTranslator fromStandard = profile.fromStandard();
+
+        // Regions are kept only if they may hold a delimiter of the given translator, so each kind
+        // of delimiter is checked against the regions of both syntaxes found for its translator
+        DelimiterEdits custom = toStandard.collectEdits(text, 0, text.length(),
+                                                        ProtectedRegions.find(text, customDelimiters, toStandard));
+        ProtectedRegions standardRegionsForCustom = ProtectedRegions.find(text, standardDelimiters, toStandard);
+        DelimiterEdits standard = fromStandard.collectEdits(text, 0, text.length(),
+                                                            ProtectedRegions.find(text, standardDelimiters, fromStandard));
+        ProtectedRegions customRegionsForStandard = ProtectedRegions.find(text, customDelimiters, fromStandard);
+
+        int customCount = 0;
+        int standardCount = 0;
+        int whitespaceControlCount = 0;
+        for (int i = 0; i < custom.size(); i++) {
+            int start = custom.getStart(i);
+            int end = custom.getEnd(i);
+            // Line closers are insertions and have no delimiter in the text
+            if (end > start && !standardRegionsForCustom.intersects(start, end)) {
+                customCount++;
+                if (hasMarker(text, start, end, isOpener(custom.getReplacement(i)))) {
+                    whitespaceControlCount++;
+                }
+            }
+        }
+        for (int i = 0; i < standard.size(); i++) {
+            int start = standard.getStart(i);
+            int end = standard.getEnd(i);
+            if (customRegionsForStandard.intersects(start, end)) {
+                continue;
+            }
+            standardCount++;
+            if (hasMarker(text, start, end, text.charAt(start) == '{')) {
+                whitespaceControlCount++;
+            }
+        }
+        return customCount == 0 && standardCount == 0 ? NONE
+            : new DelimiterUsage(customCount, standardCount, whitespaceControlCount);
+    }
+
+    // Standard openers all start with '{', closers all end with '}'
+    private static boolean isOpener(String standardDelimiter) {
+        return standardDelimiter.charAt(0) == '{';
+    }
+
+    private static boolean hasMarker(CharSequence text, int start, int end, boolean opener) {
+        int offset = opener ? end : start - 1;
+        if (offset < 0 || offset >= text.length()) {
+            return false;
+        }
+        char c = text.charAt(offset);
+        return c == '-' || c == '+';
+    }
+
+    public int getCustomCount() {
+        return customCount;
+    }
+
+    public int getStandardCount() {
+        return standardCount;
+    }
+
+    public int getWhitespaceControlCount() {
+        return whitespaceControlCount;
+    }
+
+    /**
+     * @return true if the template still contains standard delimiters that conversion would rewrite
+     */
+    public boolean usesStandard() {
+        return standardCount > 0;
+    }
+
+    /**
+     * @return true if the template contains both custom and standard delimiters
+     */
+    public boolean isMixed() {
+        return customCount > 0 && standardCount > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DelimiterUsage)) {
+            return false;
+        }
+        DelimiterUsage that = (DelimiterUsage) o;
+        return customCount == that.customCount &&
+               standardCount == that.standardCount &&
+               whitespaceControlCount == that.whitespaceControlCount;
+    }
+
+    @Override
+    public int hashCode() {
+        return (customCount * 31 + standardCount) * 31 + whitespaceControlCount;
+    }
+
+    @Override
+    public String toString() {
+        return customCount + " custom, " + standardCount + " standard, " + whitespaceControlCount + " with whitespace control";
+    }
+}
@@ -0,0 +1,227 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Edits of a translator over a whole text that keeps changing, kept up to date from its change
+ * events instead of rescanning the text.
+ *
+ * A change is only recorded as a dirty interval. When the edits are next needed, each interval
+ * is widened to the nearest positions no delimiter can span (the surrounding lines when line
+ * prefixes are configured, otherwise the surrounding run of delimiter characters) and only that
+ * text is scanned again; the edits of the text in between are carried over, shifted by the length
+ * changes before them. A burst of changes, such as the edits of a format pass, costs one merge
+ * over the edits rather than one per change.
+ *
+ * Not thread-safe: changes and reads must be serialised by the caller.
+ */
+public final class IncrementalDelimiterEdits {
+
+    private final DelimiterTranslator translator;
+    // Edits of the text as it was before the recorded changes
+    private DelimiterEdits edits;
+
+    // Changed intervals in current text offsets, ascending and not touching each other
+    private int[] dirtyStarts = new int[8];
+    private int[] dirtyEnds = new int[8];
+    // Length of each interval before the changes
+    private int[] dirtyOldLengths = new int[8];
+    private int dirtyCount;
+
+    /**
+     * @param edits edits collected by {@code translator} over the whole current text
+     */
+    public IncrementalDelimiterEdits(@NotNull DelimiterTranslator translator, @NotNull DelimiterEdits edits) {
+        this.translator = translator;
+        this.edits = edits;
+    }
+
+    @NotNull
+    public DelimiterTranslator getTranslator() {
+        return translator;
+    }
+
+    /**
+     * Records that {@code oldLength} characters at {@code offset} were replaced by
+     * {@code newLength} characters. Offsets refer to the text just before this change.
+     */
+    public void textChanged(int offset, int oldLength, int newLength) {
+        int changeEnd = offset + oldLength;
+        int first = firstEndingAtOrAfter(offset);
+        int last = first;
+        while (last < dirtyCount && dirtyStarts[last] <= changeEnd) {
+            last++;
+        }
+
+        // Merge the change with the intervals it touches
+        int start = offset;
+        int end = changeEnd;
+        int oldLengthOfMerged = changeEnd - offset;
+        if (last > first) {
+            start = Math.min(offset, dirtyStarts[first]);
+            end = Math.max(changeEnd, dirtyEnds[last - 1]);
+            oldLengthOfMerged = end - start;
+            for (int i = first; i < last; i++) {
+                oldLengthOfMerged -= dirtyEnds[i] - dirtyStarts[i] - dirtyOldLengths[i];
+            }
+        }
+        int delta = newLength - oldLength;
+
+        int removed = last - first;
+        if (removed == 0) {
+            ensureCapacity(dirtyCount + 1);
+            System.arraycopy(dirtyStarts, first, dirtyStarts, first + 1, dirtyCount - first);
+            System.arraycopy(dirtyEnds, first, dirtyEnds, first + 1, dirtyCount - first);
+            System.arraycopy(dirtyOldLengths, first, dirtyOldLengths, first + 1, dirtyCount - first);
+            dirtyCount++;
+        } else if (removed > 1) {
+            System.arraycopy(dirtyStarts, last, dirtyStarts, first + 1, dirtyCount - last);
+            System.arraycopy(dirtyEnds, last, dirtyEnds, first + 1, dirtyCount - last);
+            System.arraycopy(dirtyOldLengths, last, dirtyOldLengths, first + 1, dirtyCount - last);
+            dirtyCount -= removed - 1;
+        }
+        dirtyStarts[first] = start;
+        dirtyEnds[first] = end + delta;
+        dirtyOldLengths[first] = oldLengthOfMerged;
+
+        if (delta != 0) {
+            for (int i = first + 1; i < dirtyCount; i++) {
+                dirtyStarts[i] += delta;
+                dirtyEnds[i] += delta;
+            }
+        }
+    }
+
+    /**
+     * @return the number of dirty intervals waiting to be rescanned
+     */
+    public int getDirtyIntervalCount() {
+        return dirtyCount;
+    }
+
+    /**
+     * Brings the edits up to date with the recorded changes.
+     *
+     * @param text the whole current text
+     * @return the same edits as {@code getTranslator().collectEdits(text, 0, text.length())}
+     */
+    @NotNull
+    public DelimiterEdits getEdits(@NotNull CharSequence text) {
+        if (dirtyCount == 0) {
+            return edits;
+        }
+
+        DelimiterEdits updated = new DelimiterEdits(edits.size() + 8);
+        int length = text.length();
+        int index = 0;
+        // Current offset minus old offset, for the unchanged text before the next region
+        int shift = 0;
+
+        for (int i = 0; i < dirtyCount; ) {
+            int regionStart = translator.expandStart(text, dirtyStarts[i]);
+            int shiftAfter = shift;
+            int regionEnd = regionStart;
+            // Widen past the next break, taking in every interval the widening reaches
+            int j = i;
+            do {
+                shiftAfter += dirtyEnds[j] - dirtyStarts[j] - dirtyOldLengths[j];
+                regionEnd = Math.max(regionEnd, dirtyEnds[j]);
+                while (regionEnd < length && !translator.isScanBreak(text.charAt(regionEnd))) {
+                    regionEnd++;
+                }
+                if (regionEnd < length) {
+                    regionEnd++;
+                }
+                j++;
+            } while (j < dirtyCount && (dirtyStarts[j] < regionEnd || regionEnd == length));
+            int oldRegionStart = regionStart - shift;
+            int oldRegionEnd = regionEnd == length ? Integer.MAX_VALUE : regionEnd - shiftAfter;
+
+            for (; index < edits.size() && edits.getStart(index) < oldRegionStart; index++) {
+                updated.add(edits.getStart(index) + shift, edits.getEnd(index) + shift, edits.getReplacement(index));
+            }
+            translator.scanRange(text, regionStart, regionEnd, updated);
+            while (index < edits.size() && edits.getStart(index) < oldRegionEnd) {
+                index++;
+            }
+
+            shift = shiftAfter;
+            i = j;
+        }
+        for (; index < edits.size(); index++) {
+            updated.add(edits.getStart(index) + shift, edits.getEnd(index) + shift, edits.getReplacement(index));
+        }
+
+        edits = updated;
+        dirtyCount = 0;
+        return edits;
+    }
+
+    /**
+     * Returns the edits of a range, sliced from the whole-text edits.
+     *
+     * @return the same edits as {@code getTranslator().collectEdits(text, start, end)}, or null if
+     *         a delimiter could span either end of the range, in which case the caller has to scan
+     */
+    @Nullable
+    public DelimiterEdits getEdits(@NotNull CharSequence text, int start, int end) {
+        if (!translator.isStartBoundary(text, start) || !translator.isEndBoundary(text, end)) {
+            return null;
+        }
+        DelimiterEdits all = getEdits(text);
+        if (start == 0 && end == text.length()) {
+            return all;
+        }
+
+        DelimiterEdits slice = new DelimiterEdits();
+        for (int i = firstStartingAtOrAfter(all, start); i < all.size(); i++) {
+            int editStart = all.getStart(i);
+            // A line closer inserted at the end belongs to the last line of the range
+            if (editStart > end || editStart == end && all.getEnd(i) != end) {
+                break;
+            }
+            slice.add(editStart, all.getEnd(i), all.getReplacement(i));
+        }
+        return slice;
+    }
+
+    private int firstEndingAtOrAfter(int offset) {
+        int low = 0;
+        int high = dirtyCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (dirtyEnds[middle] < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int firstStartingAtOrAfter(DelimiterEdits edits, int offset) {
+        int low = 0;
+        int high = edits.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (edits.getStart(middle) < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > dirtyStarts.length) {
+            int newCapacity = Math.max(capacity, dirtyStarts.length * 2);
+            dirtyStarts = Arrays.copyOf(dirtyStarts, newCapacity);
+            dirtyEnds = Arrays.copyOf(dirtyEnds, newCapacity);
+            dirtyOldLengths = Arrays.copyOf(dirtyOldLengths, newCapacity);
+        }
+    }
+}
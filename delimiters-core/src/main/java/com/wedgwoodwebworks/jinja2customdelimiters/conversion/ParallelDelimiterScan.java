@@ -0,0 +1,142 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Collects the edits of a very large range on a {@link ForkJoinPool}, producing exactly what
+ * {@link DelimiterTranslator#collectEdits(CharSequence, int, int, Runnable, ProtectedRegions)}
+ * produces.
+ *
+ * The range is cut just after line breaks no delimiter can contain, where the scan state does not
+ * depend on the text before, so each segment is scanned on its own and the segment edits are
+ * concatenated in order. Ranges below {@link #PARALLEL_THRESHOLD} characters, and translators
+ * whose delimiters contain line breaks, are scanned sequentially on the calling thread.
+ */
+public final class ParallelDelimiterScan {
+
+    /**
+     * Length in characters from which a range is split; below it the fork-join overhead outweighs
+     * the gain.
+     */
+    public static final int PARALLEL_THRESHOLD = 4 << 20;
+
+    private static final int MIN_SEGMENT_LENGTH = 1 << 20;
+    // Several segments per thread even out segments with many more delimiters than others
+    private static final int SEGMENTS_PER_THREAD = 4;
+
+    private final DelimiterTranslator translator;
+    private final CharSequence text;
+    private final Runnable cancellationCheck;
+    private final ProtectedRegions protectedRegions;
+    private final int[] bounds;
+    private final DelimiterEdits[] results;
+
+    private ParallelDelimiterScan(DelimiterTranslator translator, CharSequence text, Runnable cancellationCheck,
+                                  ProtectedRegions protectedRegions, int[] bounds) {
+        this.translator = translator;
+        this.text = text;
+        this.cancellationCheck = cancellationCheck;
+        this.protectedRegions = protectedRegions;
+        this.bounds = bounds;
+        this.results = new DelimiterEdits[bounds.length - 1];
+    }
+
+    /**
+     * Collects the edits of {@code text[start, end)} on the common pool.
+     *
+     * @param cancellationCheck run on the pool's threads, so it must not depend on the calling
+     *                          thread (check a captured progress indicator, for example)
+     */
+    @NotNull
+    public static DelimiterEdits collectEdits(@NotNull DelimiterTranslator translator, @NotNull CharSequence text,
+                                              int start, int end, @NotNull Runnable cancellationCheck,
+                                              @NotNull ProtectedRegions protectedRegions) {
+        return collectEdits(translator, text, start, end, cancellationCheck, protectedRegions, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Collects the edits of {@code text[start, end)} on {@code pool}.
+     */
+    @NotNull
+    public static DelimiterEdits collectEdits(@NotNull DelimiterTranslator translator, @NotNull CharSequence text,
+                                              int start, int end, @NotNull Runnable cancellationCheck,
+                                              @NotNull ProtectedRegions protectedRegions, @NotNull ForkJoinPool pool) {
+        if (end - start < PARALLEL_THRESHOLD) {
+            return translator.collectEdits(text, start, end, cancellationCheck, protectedRegions);
+        }
+        return collectEdits(translator, text, start, end, cancellationCheck, protectedRegions, pool, MIN_SEGMENT_LENGTH);
+    }
+
+    static DelimiterEdits collectEdits(DelimiterTranslator translator, CharSequence text, int start, int end,
+                                       Runnable cancellationCheck, ProtectedRegions protectedRegions,
+                                       ForkJoinPool pool, int minSegmentLength) {
+        int segments = (int) Math.min((long) pool.getParallelism() * SEGMENTS_PER_THREAD, (end - start) / minSegmentLength);
+        int[] bounds = segments < 2 || translator.isIdentity() || !translator.isScanBreak('\n')
+            ? null : findBounds(text, start, end, segments);
+        if (bounds == null) {
+            return translator.collectEdits(text, start, end, cancellationCheck, protectedRegions);
+        }
+
+        ParallelDelimiterScan scan = new ParallelDelimiterScan(translator, text, cancellationCheck, protectedRegions, bounds);
+        pool.invoke(scan.new Segments(0, scan.results.length));
+
+        int size = 0;
+        for (DelimiterEdits result : scan.results) {
+            size += result.size();
+        }
+        DelimiterEdits edits = new DelimiterEdits(size);
+        for (DelimiterEdits result : scan.results) {
+            edits.addAll(result);
+        }
+        return edits;
+    }
+
+    /**
+     * @return the segment bounds, each one just after a line break, or null if the range has
+     *         fewer than two segments
+     */
+    private static int[] findBounds(CharSequence text, int start, int end, int segments) {
+        int[] bounds = new int[segments + 1];
+        bounds[0] = start;
+        int count = 1;
+        for (int i = 1; i < segments; i++) {
+            int split = Math.max(start + (int) ((long) (end - start) * i / segments), bounds[count - 1]);
+            while (split < end && text.charAt(split) != '\n') {
+                split++;
+            }
+            if (split + 1 >= end) {
+                break;
+            }
+            bounds[count++] = split + 1;
+        }
+        if (count < 2) {
+            return null;
+        }
+        bounds[count++] = end;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    private final class Segments extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        Segments(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = translator.collectEdits(text, bounds[from], bounds[to], cancellationCheck, protectedRegions);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Segments(from, middle), new Segments(middle, to));
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Spans of a template whose delimiter-like text is data and must not be converted: the body of
+ * {@code raw} blocks, the text of comments and string literals inside tags.
+ *
+ * Found in one pass over the template with the delimiters it is written in. Only spans that hold
+ * a character some delimiter could start with are kept, so ordinary strings such as
+ * {@code "base.html"} cost nothing when converting, while a large raw section (embedded JS or a
+ * Vue template) is skipped as a whole instead of being scanned character by character.
+ */
+public final class ProtectedRegions {
+
+    public static final ProtectedRegions NONE = new ProtectedRegions(new int[0], new int[0], 0);
+
+    private static final String RAW = "raw";
+    private static final String END_RAW = "endraw";
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int size;
+
+    private ProtectedRegions(int[] starts, int[] ends, int size) {
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+    }
+
+    /**
+     * Finds the protected regions of a template.
+     *
+     * @param delimiters the delimiters the template is written in, ordered as block start/end,
+     *                   variable start/end, comment start/end
+     * @param translator the translator the regions are for; regions it would not change are dropped
+     */
+    @NotNull
+    static ProtectedRegions find(@NotNull CharSequence text, @NotNull String[] delimiters,
+                                 @NotNull DelimiterTranslator translator) {
+        String blockStart = delimiters[0];
+        String blockEnd = delimiters[1];
+        String variableStart = delimiters[2];
+        String variableEnd = delimiters[3];
+        String commentStart = delimiters[4];
+        String commentEnd = delimiters[5];
+        Builder regions = new Builder(text, translator);
+
+        int length = text.length();
+        int offset = 0;
+        while (offset < length) {
+            // Longest opener wins, as in the translator
+            String opener = null;
+            String closer = null;
+            if (startsWith(text, offset, blockStart)) {
+                opener = blockStart;
+                closer = blockEnd;
+            }
+            if (startsWith(text, offset, variableStart) && (opener == null || variableStart.length() > opener.length())) {
+                opener = variableStart;
+                closer = variableEnd;
+            }
+            boolean comment = false;
+            if (startsWith(text, offset, commentStart) && (opener == null || commentStart.length() > opener.length())) {
+                opener = commentStart;
+                closer = commentEnd;
+                comment = true;
+            }
+            if (opener == null) {
+                offset++;
+                continue;
+            }
+
+            int contentStart = offset + opener.length();
+            if (contentStart < length && isMarker(text.charAt(contentStart))) {
+                contentStart++;
+            }
+
+            if (comment) {
+                int close = indexOf(text, commentEnd, contentStart);
+                if (close < 0) {
+                    break;
+                }
+                regions.add(contentStart, close > contentStart && isMarker(text.charAt(close - 1)) ? close - 1 : close);
+                offset = close + commentEnd.length();
+                continue;
+            }
+
+            // Find the end of the tag; a closer inside a string literal does not end it
+            int close = -1;
+            int i = contentStart;
+            while (i < length) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\'') {
+                    int stringEnd = findStringEnd(text, i);
+                    if (stringEnd < 0) {
+                        break;
+                    }
+                    regions.add(i, stringEnd);
+                    i = stringEnd;
+                    continue;
+                }
+                if (startsWith(text, i, closer)) {
+                    close = i;
+                    break;
+                }
+                i++;
+            }
+            if (close < 0) {
+                break;
+            }
+
+            offset = close + closer.length();
+            if (opener == blockStart && isTag(text, contentStart, close, RAW)) {
+                int endRaw = findEndRaw(text, offset, blockStart, blockEnd);
+                if (endRaw < 0) {
+                    break;
+                }
+                // The endraw tag itself is converted like any other tag
+                regions.add(offset, endRaw);
+                offset = endRaw;
+            }
+        }
+        return regions.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * @return true if a region overlaps {@code [start, end)}
+     */
+    public boolean intersects(int start, int end) {
+        int index = firstEndingAfter(start);
+        return index < size && starts[index] < end;
+    }
+
+    /**
+     * @return the index of the first region ending after {@code offset}, or {@link #size()}
+     */
+    int firstEndingAfter(int offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ends[middle] <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static boolean isMarker(char c) {
+        return c == '-' || c == '+';
+    }
+
+    /**
+     * @return true if the tag content {@code text[start, end)} is the given keyword, ignoring
+     *         whitespace and a trailing whitespace-control marker
+     */
+    private static boolean isTag(CharSequence text, int start, int end, String keyword) {
+        if (end > start && isMarker(text.charAt(end - 1))) {
+            end--;
+        }
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return end - start == keyword.length() && startsWith(text, start, keyword);
+    }
+
+    /**
+     * @return the offset of the block start opening the next {@code endraw} tag, or -1
+     */
+    private static int findEndRaw(CharSequence text, int from, String blockStart, String blockEnd) {
+        for (int open = indexOf(text, blockStart, from); open >= 0; open = indexOf(text, blockStart, open + 1)) {
+            int contentStart = open + blockStart.length();
+            int close = indexOf(text, blockEnd, contentStart);
+            if (close < 0) {
+                return -1;
+            }
+            if (contentStart < close && isMarker(text.charAt(contentStart))) {
+                contentStart++;
+            }
+            if (isTag(text, contentStart, close, END_RAW)) {
+                return open;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the offset after the quote closing the string literal starting at {@code start}, or
+     *         -1 if it is not closed
+     */
+    private static int findStringEnd(CharSequence text, int start) {
+        char quote = text.charAt(start);
+        for (int i = start + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence text, int offset, String prefix) {
+        if (prefix.isEmpty() || offset + prefix.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence text, String pattern, int from) {
+        int last = text.length() - pattern.length();
+        for (int i = from; i <= last; i++) {
+            if (startsWith(text, i, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Builder {
+        private final CharSequence text;
+        private final DelimiterTranslator translator;
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        private int size;
+
+        Builder(CharSequence text, DelimiterTranslator translator) {
+            this.text = text;
+            this.translator = translator;
+        }
+
+        void add(int start, int end) {
+            if (!mayHoldDelimiter(start, end)) {
+                return;
+            }
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+        private boolean mayHoldDelimiter(int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (translator.canStartMatch(text.charAt(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        ProtectedRegions build() {
+            return size == 0 ? NONE : new ProtectedRegions(starts, ends, size);
+        }
+    }
+}
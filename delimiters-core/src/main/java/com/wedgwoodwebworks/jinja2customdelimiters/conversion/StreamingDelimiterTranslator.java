@@ -0,0 +1,169 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * Translates text that arrives in chunks, producing exactly what {@link DelimiterTranslator#translate}
+ * produces for the concatenated input.
+ *
+ * Only the tail of each chunk that could still begin a delimiter is held back for the next one
+ * (shorter than the longest delimiter), so a delimiter split across a chunk boundary is still
+ * matched, and memory use depends on the chunk size rather than on the length of the input.
+ *
+ * Instances keep state between chunks and are not thread-safe; the wrapped translator can be shared.
+ */
+public final class StreamingDelimiterTranslator {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final DelimiterTranslator translator;
+    private final int overlap;
+    private final DelimiterTranslator.ScanState state = new DelimiterTranslator.ScanState(false, true);
+    private final DelimiterEdits edits = new DelimiterEdits();
+
+    // Held-back tail of the previous chunk followed by the current chunk
+    private final StringBuilder window = new StringBuilder();
+    private char[] scratch = new char[0];
+    private boolean finished;
+
+    public StreamingDelimiterTranslator(@NotNull DelimiterTranslator translator) {
+        this.translator = translator;
+        this.overlap = Math.max(0, translator.getMaxPatternLength() - 1);
+    }
+
+    /**
+     * Translates everything read from {@code in} to {@code out} in fixed-size chunks. Neither stream
+     * is closed.
+     *
+     * @return the number of characters read
+     */
+    public static long translate(@NotNull DelimiterTranslator translator,
+                                 @NotNull Reader in, @NotNull Writer out) throws IOException {
+        StreamingDelimiterTranslator stream = new StreamingDelimiterTranslator(translator);
+        char[] buffer = new char[BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            stream.write(buffer, 0, read, out);
+            total += read;
+        }
+        stream.finish(out);
+        return total;
+    }
+
+    /**
+     * Translates the next chunk of input. Output for the last few characters may be held back
+     * until the next chunk or {@link #finish}.
+     */
+    public void write(@NotNull CharSequence chunk, @NotNull Appendable out) throws IOException {
+        checkNotFinished();
+        if (translator.isIdentity()) {
+            out.append(chunk);
+            return;
+        }
+        window.append(chunk);
+        process(out);
+    }
+
+    /**
+     * Translates the remaining characters of {@code chunk} and advances its position to its limit.
+     */
+    public void write(@NotNull CharBuffer chunk, @NotNull Appendable out) throws IOException {
+        write((CharSequence) chunk, out);
+        chunk.position(chunk.limit());
+    }
+
+    /**
+     * Translates {@code chars[offset, offset + length)} as the next chunk of input.
+     */
+    public void write(@NotNull char[] chars, int offset, int length, @NotNull Appendable out) throws IOException {
+        checkNotFinished();
+        if (translator.isIdentity()) {
+            emit(out, CharBuffer.wrap(chars, offset, length));
+            return;
+        }
+        window.append(chars, offset, length);
+        process(out);
+    }
+
+    /**
+     * Translates the held-back tail and closes a pending line statement or comment. No further
+     * chunks may be written afterwards.
+     */
+    public void finish(@NotNull Appendable out) throws IOException {
+        checkNotFinished();
+        finished = true;
+        if (translator.isIdentity()) {
+            return;
+        }
+
+        int end = window.length();
+        translator.scan(window, 0, end, end, state, edits);
+        if (state.lineCloser != null) {
+            edits.add(end, end, state.lineCloser);
+            state.lineCloser = null;
+        }
+        flush(end, out);
+    }
+
+    private void process(Appendable out) throws IOException {
+        // Delimiters starting before scanLimit can be matched in full; the rest waits for more input
+        int scanLimit = window.length() - overlap;
+        if (scanLimit > 0) {
+            int stop = translator.scan(window, 0, scanLimit, window.length(), state, edits);
+            flush(stop, out);
+        }
+    }
+
+    /**
+     * Writes {@code window[0, stop)} with the collected edits applied and keeps the rest.
+     */
+    private void flush(int stop, Appendable out) throws IOException {
+        int copiedUpTo = 0;
+        for (int i = 0; i < edits.size(); i++) {
+            emit(out, copiedUpTo, edits.getStart(i));
+            out.append(edits.getReplacement(i));
+            copiedUpTo = edits.getEnd(i);
+        }
+        emit(out, copiedUpTo, stop);
+
+        edits.clear();
+        window.delete(0, stop);
+    }
+
+    private void emit(Appendable out, int start, int end) throws IOException {
+        if (start == end) {
+            return;
+        }
+        if (out instanceof Writer) {
+            // Writer.append(CharSequence, int, int) would copy each segment into a new String
+            int length = end - start;
+            if (scratch.length < length) {
+                scratch = new char[Math.max(length, BUFFER_SIZE)];
+            }
+            window.getChars(start, end, scratch, 0);
+            ((Writer) out).write(scratch, 0, length);
+        } else {
+            out.append(window, start, end);
+        }
+    }
+
+    private static void emit(Appendable out, CharBuffer chars) throws IOException {
+        if (out instanceof Writer && chars.hasArray()) {
+            ((Writer) out).write(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+        } else {
+            out.append(chars);
+        }
+    }
+
+    private void checkNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("Stream already finished");
+        }
+    }
+}
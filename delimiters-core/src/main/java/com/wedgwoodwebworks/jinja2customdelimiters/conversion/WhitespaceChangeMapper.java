@@ -0,0 +1,123 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Carries formatter whitespace changes made to a standard-delimiter copy back to the
+ * custom-delimiter original.
+ *
+ * The formatter only adds, removes or rewrites whitespace, so the copy before and after formatting
+ * has the same non-whitespace characters. The whitespace runs between them are compared pairwise
+ * and each changed run becomes an edit on the original, whose offsets are translated back through
+ * the delimiter edits that produced the copy. Delimiters therefore keep their custom form without
+ * a second conversion pass.
+ */
+public final class WhitespaceChangeMapper {
+
+    private WhitespaceChangeMapper() {
+    }
+
+    /**
+     * @param original   text holding custom delimiters
+     * @param start      start of the converted range in {@code original}
+     * @param end        end of the converted range in {@code original}
+     * @param conversion edits that turned {@code original[start, end)} into {@code standard}
+     * @param standard   the converted range, as handed to the formatter
+     * @param formatted  {@code standard} after formatting
+     * @return whitespace edits with offsets in {@code original}, in ascending order, or null if the
+     *         formatter changed anything other than whitespace
+     */
+    @Nullable
+    public static DelimiterEdits map(@NotNull CharSequence original, int start, int end,
+                                     @NotNull DelimiterEdits conversion,
+                                     @NotNull CharSequence standard, @NotNull CharSequence formatted) {
+        if (standard.length() != end - start + conversion.getLengthDelta()) {
+            throw new IllegalArgumentException("standard text does not match the conversion edits");
+        }
+
+        DelimiterEdits edits = new DelimiterEdits();
+        int standardLength = standard.length();
+        int formattedLength = formatted.length();
+        int i = 0;
+        int j = 0;
+        // Next conversion edit not entirely before i, with its span in the standard text
+        int edit = 0;
+        int spanStart = 0;
+        int spanEnd = 0;
+        int delta = 0;
+        if (conversion.size() > 0) {
+            spanStart = conversion.getStart(0) - start;
+            spanEnd = spanStart + conversion.getReplacement(0).length();
+        }
+
+        while (i < standardLength || j < formattedLength) {
+            boolean standardSpace = i < standardLength && Character.isWhitespace(standard.charAt(i));
+            boolean formattedSpace = j < formattedLength && Character.isWhitespace(formatted.charAt(j));
+            if (!standardSpace && !formattedSpace) {
+                if (i == standardLength || j == formattedLength || standard.charAt(i) != formatted.charAt(j)) {
+                    return null;
+                }
+                i++;
+                j++;
+                continue;
+            }
+
+            int runStart = i;
+            int formattedRunStart = j;
+            while (i < standardLength && Character.isWhitespace(standard.charAt(i))) {
+                i++;
+            }
+            while (j < formattedLength && Character.isWhitespace(formatted.charAt(j))) {
+                j++;
+            }
+            if (regionMatches(standard, runStart, i, formatted, formattedRunStart, j)) {
+                continue;
+            }
+
+            // Conversion edits ending at or before the run shift its offsets
+            while (edit < conversion.size() && spanEnd <= runStart) {
+                delta += conversion.getReplacement(edit).length() - (conversion.getEnd(edit) - conversion.getStart(edit));
+                edit++;
+                if (edit < conversion.size()) {
+                    spanStart = conversion.getStart(edit) - start + delta;
+                    spanEnd = spanStart + conversion.getReplacement(edit).length();
+                }
+            }
+            // Whitespace inside a converted delimiter, such as the space of an inserted " %}",
+            // does not exist in the original. An insertion right before a delimiter is outside it.
+            if (edit < conversion.size() && spanStart < (i > runStart ? i : runStart) && spanEnd > runStart) {
+                continue;
+            }
+
+            // Replace only the differing middle of the run
+            int prefix = 0;
+            while (runStart + prefix < i && formattedRunStart + prefix < j &&
+                   standard.charAt(runStart + prefix) == formatted.charAt(formattedRunStart + prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (i - suffix > runStart + prefix && j - suffix > formattedRunStart + prefix &&
+                   standard.charAt(i - suffix - 1) == formatted.charAt(j - suffix - 1)) {
+                suffix++;
+            }
+            int originalStart = start + runStart + prefix - delta;
+            int originalEnd = start + i - suffix - delta;
+            edits.add(originalStart, originalEnd,
+                      formatted.subSequence(formattedRunStart + prefix, j - suffix).toString());
+        }
+        return edits;
+    }
+
+    private static boolean regionMatches(CharSequence a, int aStart, int aEnd, CharSequence b, int bStart, int bEnd) {
+        if (aEnd - aStart != bEnd - bStart) {
+            return false;
+        }
+        for (int k = 0; k < aEnd - aStart; k++) {
+            if (a.charAt(aStart + k) != b.charAt(bStart + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
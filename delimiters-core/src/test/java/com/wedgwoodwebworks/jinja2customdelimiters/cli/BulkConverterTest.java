@@ -0,0 +1,157 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.cli;
+
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterTranslator;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BulkConverterTest extends TestCase {
+
+    private static final DelimiterTranslator SQUARE_TO_STANDARD =
+        DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]");
+
+    private Path root;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = Files.createTempDirectory("bulk-converter");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testConvertsOnlyChangedFilesAcrossTree() throws IOException {
+        Path custom = write("a/b/page.j2", "[% if x %][[ y ]][% endif %]");
+        Path standard = write("a/plain.j2", "{{ already standard }}");
+        long untouched = Files.getLastModifiedTime(standard).toMillis();
+        // Large enough to be memory-mapped
+        Path large = write("large.j2", "<p>text</p>\n".repeat(4096) + "[[ z ]]");
+
+        BulkConverter.Result result = converter(false, new CopyOnWriteArrayList<>()).run(List.of(root));
+
+        assertEquals(3, result.getFiles());
+        assertEquals(2, result.getChangedFiles());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals("{% if x %}{{ y }}{% endif %}", read(custom));
+        assertTrue(read(large).endsWith("{{ z }}"));
+        assertEquals(untouched, Files.getLastModifiedTime(standard).toMillis());
+    }
+
+    public void testReplacesFilesAtomicallyKeepingPermissions() throws IOException {
+        Path custom = write("page.j2", "[[ y ]]");
+        PosixFileAttributeView attributes = Files.getFileAttributeView(custom, PosixFileAttributeView.class);
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        if (attributes != null) {
+            Files.setPosixFilePermissions(custom, permissions);
+        }
+
+        BulkConverter.Result result = converter(false, new CopyOnWriteArrayList<>()).run(List.of(custom));
+
+        assertEquals(1, result.getChangedFiles());
+        assertEquals("{{ y }}", read(custom));
+        // Only the template itself is left, no temporary file next to it
+        try (Stream<Path> files = Files.list(root)) {
+            assertEquals(List.of(custom), files.collect(Collectors.toList()));
+        }
+        if (attributes != null) {
+            assertEquals(permissions, Files.getPosixFilePermissions(custom));
+        }
+    }
+
+    public void testCheckModeReportsWithoutWriting() throws IOException {
+        Path custom = write("page.j2", "[[ y ]]");
+        List<Path> changed = new CopyOnWriteArrayList<>();
+
+        BulkConverter.Result result = converter(true, changed).run(List.of(root));
+
+        assertEquals(1, result.getChangedFiles());
+        assertEquals(List.of(custom), changed);
+        assertEquals("[[ y ]]", read(custom));
+    }
+
+    public void testSkipsFilteredFilesAndHiddenDirectories() throws IOException {
+        write("notes.txt", "[[ y ]]");
+        write(".git/hooks/page.j2", "[[ y ]]");
+
+        BulkConverter.Result result = converter(false, new CopyOnWriteArrayList<>()).run(List.of(root));
+
+        assertEquals(0, result.getFiles());
+    }
+
+    public void testDoesNotFollowLinksOutOfTree() throws IOException {
+        Path outside = Files.createTempFile("bulk-converter-outside", ".j2");
+        try {
+            Files.writeString(outside, "[[ y ]]");
+            Path inside = write("page.j2", "[[ x ]]");
+            try {
+                Files.createSymbolicLink(root.resolve("link.j2"), outside);
+            } catch (UnsupportedOperationException | IOException e) {
+                return; // No symbolic links on this file system
+            }
+
+            BulkConverter.Result result = converter(false, new CopyOnWriteArrayList<>()).run(List.of(root));
+
+            assertEquals(1, result.getFiles());
+            assertEquals("{{ x }}", read(inside));
+            assertEquals("[[ y ]]", read(outside));
+        } finally {
+            Files.deleteIfExists(outside);
+        }
+    }
+
+    public void testConvertsFileReachedThroughTwoRootsOnce() throws IOException {
+        Path custom = write("a/page.j2", "[[ y ]]");
+        List<Path> changed = new CopyOnWriteArrayList<>();
+
+        BulkConverter.Result result = converter(false, changed).run(List.of(root, root.resolve("a"), custom));
+
+        assertEquals(1, result.getFiles());
+        assertEquals(1, changed.size());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals("{{ y }}", read(custom));
+    }
+
+    public void testReportsUndecodableFiles() throws IOException {
+        Path binary = root.resolve("broken.j2");
+        Files.write(binary, new byte[]{(byte) 0xC3, (byte) 0x28});
+
+        BulkConverter.Result result = converter(false, new CopyOnWriteArrayList<>()).run(List.of(binary));
+
+        assertEquals(Collections.singletonList(binary + ": not valid UTF-8"), result.getFailures());
+    }
+
+    private BulkConverter converter(boolean check, List<Path> changed) {
+        return new BulkConverter(SQUARE_TO_STANDARD, DelimiterCli.fileFilter("*.j2"), check, 4, changed::add);
+    }
+
+    private Path write(String relativePath, String content) throws IOException {
+        Path file = root.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        return file;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,44 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.cli;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DelimiterCliTest extends TestCase {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    public void testCheckExitsNonZeroWhenFilesWouldChange() throws IOException {
+        Path file = Files.createTempFile("cli", ".j2");
+        try {
+            Files.writeString(file, "[[ x ]]");
+
+            assertEquals(DelimiterCli.EXIT_CHANGES_NEEDED, run("--variable-start", "[[", "--variable-end", "]]",
+                                                               "--check", file.toString()));
+            assertTrue(out.toString().contains("would change: " + file));
+
+            assertEquals(DelimiterCli.EXIT_OK, run("--variable-start", "[[", "--variable-end", "]]", file.toString()));
+            assertEquals("{{ x }}", Files.readString(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testStandardProfileIsUsageError() {
+        assertEquals(DelimiterCli.EXIT_ERROR, run("--check", "."));
+    }
+
+    public void testMissingOptionValueIsUsageError() {
+        assertEquals(DelimiterCli.EXIT_ERROR, run("--block-start"));
+        assertTrue(err.toString().contains("Missing value for --block-start"));
+    }
+
+    private int run(String... args) {
+        return DelimiterCli.run(args, new PrintStream(out, true), new PrintStream(err, true));
+    }
+}
@@ -0,0 +1,35 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import junit.framework.TestCase;
+
+public class DelimiterProfileDetectorTest extends TestCase {
+
+    private static final DelimiterProfile SQUARE =
+        new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+    private static final DelimiterProfile DOLLAR_BRACE =
+        new DelimiterProfile("{%", "%}", "${", "}", "{#", "#}", "", "");
+
+    public void testCustomTemplate() {
+        assertSame(SQUARE, DelimiterProfileDetector.detect("<div id=\"app\">{{ vue }}</div>\n[[ jinja ]]", SQUARE));
+        assertSame(SQUARE, DelimiterProfileDetector.detect("{{ a }}\n  %% if b\n", SQUARE));
+        assertSame(DOLLAR_BRACE, DelimiterProfileDetector.detect("{% if a %}${ b }{% endif %}", DOLLAR_BRACE));
+    }
+
+    public void testStandardAndLatexTemplatesAreLeftAlone() {
+        assertSame(DelimiterProfile.STANDARD, DelimiterProfileDetector.detect("- name: {{ item }}\n", SQUARE));
+        assertSame(DelimiterProfile.STANDARD, DelimiterProfileDetector.detect("{% if a %}{% endif %}", DOLLAR_BRACE));
+        assertSame(DelimiterProfile.STANDARD,
+                   DelimiterProfileDetector.detect("\\section{\\VAR{title}}\n\\BLOCK{for x in xs}", SQUARE));
+    }
+
+    public void testOnlyTheSampleIsRead() {
+        StringBuilder text = new StringBuilder("{{ a }}\n");
+        while (text.length() < DelimiterProfileDetector.SAMPLE_LENGTH) {
+            text.append("plain text\n");
+        }
+        text.append("[[ b ]]");
+
+        assertSame(DelimiterProfile.STANDARD, DelimiterProfileDetector.detect(text, SQUARE));
+        assertSame(SQUARE, DelimiterProfileDetector.detect("no delimiters yet", SQUARE));
+    }
+}
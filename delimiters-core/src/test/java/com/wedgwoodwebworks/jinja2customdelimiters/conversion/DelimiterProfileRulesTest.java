@@ -0,0 +1,69 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import junit.framework.TestCase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DelimiterProfileRulesTest extends TestCase {
+
+    private static final DelimiterProfile SQUARE =
+        new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", "");
+    private static final DelimiterProfile DOLLAR_BRACE =
+        new DelimiterProfile("{%", "%}", "${", "}", "{#", "#}", "", "");
+
+    public void testGlobs() {
+        assertMatches("salt/**/*.sls", "salt/top.sls", "salt/web/nginx/init.sls");
+        assertNoMatch("salt/**/*.sls", "salt/top.sls.bak", "pillar/top.sls", "salt");
+        assertMatches("latex/**", "latex", "latex/report.tex", "latex/a/b.tex");
+        assertNoMatch("latex/**", "latexfoo/report.tex", "docs/latex/report.tex");
+        assertMatches("*.j2", "site.j2", "roles/web/templates/site.j2");
+        assertMatches("templates/", "templates/base.html");
+        assertMatches("/templates/?.html", "templates/a.html");
+        assertNoMatch("/templates/?.html", "templates/ab.html", "templates/a/b.html");
+        assertMatches("**/*.{sls,jinja}", "top.sls", "a/b/c.jinja");
+        assertMatches("a+b/(c).html", "a+b/(c).html");
+    }
+
+    public void testFirstMatchingRuleWins() {
+        Map<String, DelimiterProfile> rules = new LinkedHashMap<>();
+        rules.put("salt/legacy/**", DelimiterProfile.STANDARD);
+        rules.put("salt/**", SQUARE);
+        rules.put("**", DOLLAR_BRACE);
+        DelimiterProfileRules compiled = DelimiterProfileRules.compile(rules);
+
+        assertSame(DelimiterProfile.STANDARD, compiled.find("salt/legacy/top.sls"));
+        assertSame(SQUARE, compiled.find("salt/top.sls"));
+        assertSame(DOLLAR_BRACE, compiled.find("templates/base.html"));
+        assertEquals(3, compiled.size());
+
+        assertNull(DelimiterProfileRules.compile(Map.of("salt/**", SQUARE)).find("pillar/top.sls"));
+        assertNull(DelimiterProfileRules.EMPTY.find("salt/top.sls"));
+        assertTrue(DelimiterProfileRules.compile(new LinkedHashMap<>()).isEmpty());
+    }
+
+    public void testMalformedGlobs() {
+        for (String glob : new String[]{"", " / ", "salt//*.sls", "*.{sls", "{a,{b}}"}) {
+            try {
+                DelimiterProfileRules.checkGlob(glob);
+                fail("accepted " + glob);
+            } catch (IllegalArgumentException expected) {
+                assertFalse(expected.getMessage().isEmpty());
+            }
+        }
+    }
+
+    private static void assertMatches(String glob, String... paths) {
+        DelimiterProfileRules rules = DelimiterProfileRules.compile(Map.of(glob, SQUARE));
+        for (String path : paths) {
+            assertSame(glob + " should match " + path, SQUARE, rules.find(path));
+        }
+    }
+
+    private static void assertNoMatch(String glob, String... paths) {
+        DelimiterProfileRules rules = DelimiterProfileRules.compile(Map.of(glob, SQUARE));
+        for (String path : paths) {
+            assertNull(glob + " should not match " + path, rules.find(path));
+        }
+    }
+}
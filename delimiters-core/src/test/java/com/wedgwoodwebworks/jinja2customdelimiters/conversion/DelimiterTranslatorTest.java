@@ -0,0 +1,252 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+public class DelimiterTranslatorTest extends TestCase {
+
+    private static DelimiterTranslator squareToStandard() {
+        return DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]");
+    }
+
+    private static DelimiterTranslator squareFromStandard() {
+        return DelimiterTranslator.fromStandard("[%", "%]", "[[", "]]", "[#", "#]");
+    }
+
+    public void testStandardDelimitersAreIdentity() {
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("{%", "%}", "{{", "}}", "{#", "#}");
+
+        assertTrue(translator.isIdentity());
+        assertEquals("{% if x %}{{ y }}{# z #}", translator.translate("{% if x %}{{ y }}{# z #}"));
+    }
+
+    public void testRoundTrip() {
+        String custom = "[% for item in items %]\n  <li>[[ item.name ]]</li> [# note #]\n[% endfor %]";
+        String standard = "{% for item in items %}\n  <li>{{ item.name }}</li> {# note #}\n{% endfor %}";
+
+        assertEquals(standard, squareToStandard().translate(custom));
+        assertEquals(custom, squareFromStandard().translate(standard));
+    }
+
+    public void testWhitespaceControlVariants() {
+        assertEquals("{%- if x -%}{%+ y +%}{{- z -}}",
+                     squareToStandard().translate("[%- if x -%][%+ y +%][[- z -]]"));
+        assertEquals("[%- if x -%][%+ y +%][[- z -]]",
+                     squareFromStandard().translate("{%- if x -%}{%+ y +%}{{- z -}}"));
+    }
+
+    public void testUnchangedTextIsReturnedAsIs() {
+        String text = "<div class=\"x\">plain [text] with % signs</div>";
+
+        assertEquals(text, squareToStandard().translate(text));
+    }
+
+    public void testLongestMatchWhenDelimiterIsPrefixOfAnother() {
+        // "<%" is a prefix of "<%=", chained replaces would turn "<%=" into "{%="
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("<%", "%>", "<%=", "=%>", "<#", "#>");
+
+        assertEquals("{% if x %}{{ y }}", translator.translate("<% if x %><%= y =%>"));
+    }
+
+    public void testUnchangedStandardDelimiterShieldsOverlappingCustomDelimiter() {
+        // Only the variable delimiters are custom; "}" must not be rewritten inside "%}"
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("{%", "%}", "${", "}", "{#", "#}");
+
+        assertEquals("{% if x %}{{ y }}", translator.translate("{% if x %}${ y }"));
+    }
+
+    public void testDelimiterAtEndOfText() {
+        assertEquals("x {{", squareToStandard().translate("x [["));
+        assertEquals("x [", squareToStandard().translate("x ["));
+    }
+
+    public void testEditsCoverOnlyChangedDelimiters() {
+        String text = "a [%- if x -%] b {% raw %} [[ y ]]";
+        DelimiterEdits edits = squareToStandard().collectEdits(text, 0, text.length());
+
+        assertEquals(4, edits.size());
+        assertEquals(2, edits.getStart(0));
+        assertEquals(4, edits.getEnd(0));
+        assertEquals("{%", edits.getReplacement(0));
+        assertEquals(12, edits.getStart(1));
+        assertEquals("%}", edits.getReplacement(1));
+        assertEquals(0, edits.getLengthDelta());
+        assertEquals("a {%- if x -%} b {% raw %} {{ y }}", edits.applyTo(text));
+    }
+
+    public void testEditsLimitedToRange() {
+        String text = "[[ a ]] [[ b ]]";
+        DelimiterEdits edits = squareToStandard().collectEdits(text, 8, text.length());
+
+        assertEquals(2, edits.size());
+        assertEquals(8, edits.getStart(0));
+    }
+
+    public void testLengthDeltaForDifferentLengthDelimiters() {
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("\\BLOCK{", "}%", "\\VAR{", "}$", "\\#{", "}#");
+        String text = "\\BLOCK{ if x }% \\VAR{ y }$";
+        DelimiterEdits edits = translator.collectEdits(text, 0, text.length());
+
+        assertEquals(-8, edits.getLengthDelta());
+        assertEquals("{% if x %} {{ y }}", edits.applyTo(text));
+    }
+
+    public void testLinePrefixesBecomeBlocksAndComments() {
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]", "%%", "##");
+        String custom = "%% for item in items\n  ## a note\n  <li>[[ item ]] 100%% sure</li>\n%% endfor";
+
+        assertEquals("{% for item in items %}\n  {# a note #}\n  <li>{{ item }} 100%% sure</li>\n{% endfor %}",
+                     translator.translate(custom));
+    }
+
+    public void testLinePrefixEditsStayInOffsetOrder() {
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+        String text = "%% set x = [[ y ]]\r\nrest";
+        DelimiterEdits edits = translator.collectEdits(text, 0, text.length());
+
+        assertEquals(4, edits.size());
+        assertEquals(18, edits.getStart(3));
+        assertEquals(18, edits.getEnd(3));
+        assertEquals(" %}", edits.getReplacement(3));
+        assertEquals("{% set x = {{ y }} %}\r\nrest", edits.applyTo(text));
+    }
+
+    public void testLinePrefixContinuingPastRangeIsLeftAlone() {
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+        String text = "a\n  %% if x\nb";
+
+        assertTrue(translator.collectEdits(text, 0, 8).isEmpty());
+        // A range starting after the indentation still sees the line start
+        assertEquals("{% if x %}", translator.collectEdits(text, 4, 11).applyTo(text, 4, 11));
+    }
+
+    public void testCancellationCheckRunsPerInterval() {
+        String text = "[[ x ]] ".repeat(DelimiterTranslator.CANCELLATION_CHECK_INTERVAL / 2);
+        int[] checks = new int[1];
+
+        DelimiterEdits edits = squareToStandard().collectEdits(text, 0, text.length(), () -> checks[0]++);
+
+        assertEquals(4, checks[0]);
+        assertEquals(DelimiterTranslator.CANCELLATION_CHECK_INTERVAL, edits.size());
+        try {
+            squareToStandard().collectEdits(text, 0, text.length(), () -> {
+                if (++checks[0] > 5) {
+                    throw new IllegalStateException("canceled");
+                }
+            });
+            fail("scan was not canceled");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testScanAllocatesOnlyForChangedDelimiters() {
+        // 1 MB of text with ten custom tags; scanning must not copy the text
+        StringBuilder builder = new StringBuilder(1 << 20);
+        while (builder.length() < (1 << 20)) {
+            builder.append("<p>plain markup with [brackets], 100% and #hashes</p>\n");
+        }
+        for (int i = 0; i < 10; i++) {
+            builder.insert(i * 100_000, "[[ x ]]");
+        }
+        String text = builder.toString();
+        DelimiterTranslator translator = squareToStandard();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+
+        // Warm up so class loading and JIT do not count against the budget
+        for (int i = 0; i < 5; i++) {
+            translator.collectEdits(text, 0, text.length());
+        }
+
+        long threadId = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        DelimiterEdits edits = translator.collectEdits(text, 0, text.length());
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(20, edits.size());
+        assertTrue("Scanning 1 MB allocated " + allocated + " bytes", allocated < 16 * 1024);
+    }
+
+    public void testExpandRangeToCutDelimiters() {
+        DelimiterTranslator translator = squareToStandard();
+        String text = "<p>[[ name ]]</p>";
+
+        // "[ name ]" cuts both delimiters
+        int start = translator.expandStart(text, 4);
+        int end = translator.expandEnd(text, 12);
+
+        assertEquals(3, start);
+        assertEquals(13, end);
+        assertEquals("{{ name }}", translator.collectEdits(text, start, end).applyTo(text, start, end));
+        // Offsets between plain characters are left alone
+        assertEquals(6, translator.expandStart(text, 6));
+        assertEquals(8, translator.expandEnd(text, 8));
+    }
+
+    public void testExpandRangeToLinesWithLinePrefixes() {
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+        String text = "<ul>\n  %% for x in y\n  <li>[[ x ]]</li>\n";
+
+        int start = translator.expandStart(text, 12);
+        int end = translator.expandEnd(text, 14);
+
+        assertEquals(5, start);
+        assertEquals(20, end);
+        assertEquals("  {% for x in y %}", translator.collectEdits(text, start, end).applyTo(text, start, end));
+    }
+
+    public void testExpandRangeWithinUnprefixedLineWithLinePrefixes() {
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+        String text = "%% if x\n<p>a long line of text with [[ name ]] in it</p>\n%% endif\n";
+        int variable = text.indexOf("[[");
+
+        // "[ name ]" cuts both delimiters; only they are taken in, not the whole line
+        int start = translator.expandStart(text, variable + 1);
+        int end = translator.expandEnd(text, variable + 9);
+
+        assertEquals(variable, start);
+        assertEquals(variable + 10, end);
+        assertEquals("{{ name }}", translator.collectEdits(text, start, end).applyTo(text, start, end));
+    }
+
+    public void testExpandedRangesScanLikeWholeText() {
+        DelimiterTranslator translator = DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]", "%%", "##");
+        Random random = new Random(11);
+        String alphabet = "[]%# ab\n";
+
+        for (int round = 0; round < 200; round++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 120; i++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            DelimiterEdits all = translator.collectEdits(text, 0, text.length());
+            for (int n = 0; n < 20; n++) {
+                int from = random.nextInt(text.length() + 1);
+                int to = from + random.nextInt(text.length() - from + 1);
+                int start = translator.expandStart(text, from);
+                int end = translator.expandEnd(text, to);
+
+                StringBuilder expected = new StringBuilder();
+                for (int i = 0; i < all.size(); i++) {
+                    // A closer inserted at the end belongs to the last line of the range
+                    if (all.getStart(i) >= start && (all.getStart(i) < end || all.getEnd(i) == end)) {
+                        expected.append(all.getStart(i)).append('-').append(all.getEnd(i))
+                                .append(':').append(all.getReplacement(i)).append(' ');
+                    }
+                }
+                DelimiterEdits edits = translator.collectEdits(text, start, end);
+                StringBuilder actual = new StringBuilder();
+                for (int i = 0; i < edits.size(); i++) {
+                    actual.append(edits.getStart(i)).append('-').append(edits.getEnd(i))
+                          .append(':').append(edits.getReplacement(i)).append(' ');
+                }
+                assertEquals("range " + from + "-" + to + " on \"" + text + "\"", expected.toString(), actual.toString());
+            }
+        }
+    }
+}
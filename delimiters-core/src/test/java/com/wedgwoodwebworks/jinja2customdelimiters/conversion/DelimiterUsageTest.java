@@ -0,0 +1,31 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import junit.framework.TestCase;
+
+public class DelimiterUsageTest extends TestCase {
+
+    private static final DelimiterProfile SQUARE =
+        new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+
+    public void testCountsBothKinds() {
+        DelimiterUsage usage = DelimiterUsage.count("[%- if a %][[ b -]]{{ c }}\n%% endif\n", SQUARE);
+
+        assertEquals(5, usage.getCustomCount());
+        assertEquals(2, usage.getStandardCount());
+        assertEquals(2, usage.getWhitespaceControlCount());
+        assertTrue(usage.isMixed());
+        assertTrue(usage.usesStandard());
+    }
+
+    public void testProtectedRegionsAreNotCounted() {
+        DelimiterUsage usage = DelimiterUsage.count("[% raw %]{{ a }}[[ b ]][% endraw %][[ '{{' ]]", SQUARE);
+
+        assertEquals(6, usage.getCustomCount());
+        assertFalse(usage.usesStandard());
+    }
+
+    public void testTemplatesWithoutDelimiters() {
+        assertSame(DelimiterUsage.NONE, DelimiterUsage.count("<p>plain</p>", SQUARE));
+        assertSame(DelimiterUsage.NONE, DelimiterUsage.count("{{ a }}", DelimiterProfile.STANDARD));
+    }
+}
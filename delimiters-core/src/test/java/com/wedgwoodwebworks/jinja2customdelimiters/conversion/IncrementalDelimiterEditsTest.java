@@ -0,0 +1,97 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class IncrementalDelimiterEditsTest extends TestCase {
+
+    private static final String ALPHABET = "[]%#<>=-+ ab\n";
+
+    private static DelimiterTranslator[] translators() {
+        return new DelimiterTranslator[]{
+            DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]"),
+            DelimiterTranslator.toStandard("<%", "%>", "<%=", "%>", "<#", "#>"),
+            DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]", "%%", "##")
+        };
+    }
+
+    public void testSingleChange() {
+        DelimiterTranslator translator = translators()[0];
+        StringBuilder text = new StringBuilder("<p>[[ a ]]</p> [% if b %]");
+        IncrementalDelimiterEdits incremental =
+            new IncrementalDelimiterEdits(translator, translator.collectEdits(text, 0, text.length()));
+
+        // Turns "[[ a ]]" into "[ a ]]" and "[%" into "[[%"
+        text.deleteCharAt(3);
+        incremental.textChanged(3, 1, 0);
+        text.insert(14, "[");
+        incremental.textChanged(14, 0, 1);
+
+        assertEquals(2, incremental.getDirtyIntervalCount());
+        assertEquals("<p>[ a }}</p> {{% if b %}", incremental.getEdits(text).applyTo(text));
+        assertEquals(0, incremental.getDirtyIntervalCount());
+    }
+
+    public void testMatchesFullScanAfterRandomChanges() {
+        Random random = new Random(42);
+
+        for (DelimiterTranslator translator : translators()) {
+            StringBuilder text = new StringBuilder();
+            IncrementalDelimiterEdits incremental = new IncrementalDelimiterEdits(translator, new DelimiterEdits());
+            for (int round = 0; round < 500; round++) {
+                // Several changes between reads, as during a format pass
+                for (int changes = random.nextInt(6) + 1; changes > 0; changes--) {
+                    int offset = random.nextInt(text.length() + 1);
+                    int oldLength = random.nextInt(Math.min(4, text.length() - offset) + 1);
+                    String inserted = randomText(random, random.nextInt(6));
+                    text.replace(offset, offset + oldLength, inserted);
+                    incremental.textChanged(offset, oldLength, inserted.length());
+                }
+
+                assertEquals("round " + round + " on \"" + text + "\"",
+                             describe(translator.collectEdits(text, 0, text.length())),
+                             describe(incremental.getEdits(text)));
+            }
+        }
+    }
+
+    public void testRangeEditsMatchRangeScan() {
+        Random random = new Random(7);
+
+        for (DelimiterTranslator translator : translators()) {
+            String text = randomText(random, 400);
+            IncrementalDelimiterEdits incremental =
+                new IncrementalDelimiterEdits(translator, translator.collectEdits(text, 0, text.length()));
+            int sliced = 0;
+            for (int n = 0; n < 300; n++) {
+                int start = random.nextInt(text.length() + 1);
+                int end = start + random.nextInt(text.length() - start + 1);
+                DelimiterEdits edits = incremental.getEdits(text, start, end);
+                if (edits != null) {
+                    sliced++;
+                    assertEquals("range " + start + "-" + end,
+                                 describe(translator.collectEdits(text, start, end)), describe(edits));
+                }
+            }
+            assertTrue(sliced > 0);
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+
+    private static String describe(DelimiterEdits edits) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < edits.size(); i++) {
+            description.append(edits.getStart(i)).append('-').append(edits.getEnd(i))
+                       .append(':').append(edits.getReplacement(i)).append(' ');
+        }
+        return description.toString();
+    }
+}
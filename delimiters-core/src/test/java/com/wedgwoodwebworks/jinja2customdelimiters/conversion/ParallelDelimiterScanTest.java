@@ -0,0 +1,68 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelDelimiterScanTest extends TestCase {
+
+    private static final String ALPHABET = "[]%#<>=-+ ab'\n";
+
+    private static final DelimiterProfile[] PROFILES = {
+        new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", ""),
+        new DelimiterProfile("<%", "%>", "<%=", "%>", "<#", "#>", "", ""),
+        new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "%%", "##")
+    };
+
+    public void testMatchesSequentialScan() {
+        Random random = new Random(11);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (DelimiterProfile profile : PROFILES) {
+                for (int round = 0; round < 50; round++) {
+                    String text = randomText(random, 2000 + random.nextInt(2000));
+                    int start = random.nextInt(200);
+                    int end = text.length() - random.nextInt(200);
+                    ProtectedRegions regions = round % 2 == 0 ? ProtectedRegions.NONE : profile.findProtectedRegions(text);
+                    DelimiterTranslator translator = profile.toStandard();
+
+                    DelimiterEdits sequential = translator.collectEdits(text, start, end, regions);
+                    DelimiterEdits parallel =
+                        ParallelDelimiterScan.collectEdits(translator, text, start, end, () -> { }, regions, pool, 100);
+
+                    assertEquals("round " + round, describe(sequential), describe(parallel));
+                    assertEquals(sequential.getLengthDelta(), parallel.getLengthDelta());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testSmallRangeStaysSequential() {
+        String text = "[[ a ]]\n[% if b %]\n";
+
+        DelimiterEdits edits =
+            ParallelDelimiterScan.collectEdits(PROFILES[0].toStandard(), text, 0, text.length(), () -> { }, ProtectedRegions.NONE);
+
+        assertEquals("{{ a }}\n{% if b %}\n", edits.applyTo(text));
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+
+    private static String describe(DelimiterEdits edits) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < edits.size(); i++) {
+            description.append(edits.getStart(i)).append('-').append(edits.getEnd(i))
+                       .append(':').append(edits.getReplacement(i)).append(' ');
+        }
+        return description.toString();
+    }
+}
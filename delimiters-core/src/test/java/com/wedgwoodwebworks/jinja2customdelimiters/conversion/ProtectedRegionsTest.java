@@ -0,0 +1,81 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import junit.framework.TestCase;
+
+public class ProtectedRegionsTest extends TestCase {
+
+    private static final DelimiterProfile SQUARE =
+        new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", "");
+
+    private static String toStandard(String text) {
+        ProtectedRegions regions = SQUARE.findProtectedRegions(text);
+        return SQUARE.toStandard().collectEdits(text, 0, text.length(), regions).applyTo(text);
+    }
+
+    private static String fromStandard(String text) {
+        ProtectedRegions regions = SQUARE.findStandardProtectedRegions(text);
+        return SQUARE.fromStandard().collectEdits(text, 0, text.length(), regions).applyTo(text);
+    }
+
+    public void testRawBlockIsSkipped() {
+        String text = "[[ a ]][% raw %]<script>x = [[1, 2]]; y = \"[%\"</script>[%- endraw -%][[ b ]]";
+
+        assertEquals("{{ a }}{% raw %}<script>x = [[1, 2]]; y = \"[%\"</script>{%- endraw -%}{{ b }}",
+                     toStandard(text));
+        assertEquals(1, SQUARE.findProtectedRegions(text).size());
+    }
+
+    public void testStringsAndCommentsAreSkipped() {
+        assertEquals("{{ \"]] [[\" ~ '[%' }}{% include \"base.html\" %}{#- see [[ x ]] -#}",
+                     toStandard("[[ \"]] [[\" ~ '[%' ]][% include \"base.html\" %][#- see [[ x ]] -#]"));
+        assertEquals("[[ \"{{\" ]] [# {% if %} #]", fromStandard("{{ \"{{\" }} {# {% if %} #}"));
+    }
+
+    public void testEscapedQuote() {
+        assertEquals("{{ \"a\\\"]]\" }} {{ b }}", toStandard("[[ \"a\\\"]]\" ]] [[ b ]]"));
+    }
+
+    public void testOnlyRegionsHoldingDelimitersAreKept() {
+        ProtectedRegions regions =
+            SQUARE.findProtectedRegions("[% extends \"base.html\" %][# plain #][% raw %]text[% endraw %]");
+
+        assertTrue(regions.isEmpty());
+        assertSame(ProtectedRegions.NONE, DelimiterProfile.STANDARD.findProtectedRegions("{{ '{{' }}"));
+    }
+
+    public void testUnterminatedConstructsAreConverted() {
+        assertEquals("{% raw %}{{ a }}", toStandard("[% raw %][[ a ]]"));
+        assertEquals("{{ 'a }} {{ b }}", toStandard("[[ 'a ]] [[ b ]]"));
+    }
+
+    public void testRangeOverRegions() {
+        String text = "[[ a ]] [[ '[[' ]] [# [[ #] [[ b ]]";
+        ProtectedRegions regions = SQUARE.findProtectedRegions(text);
+
+        assertTrue(regions.intersects(9, 13));
+        assertFalse(regions.intersects(0, 11));
+        assertEquals("[[ a ]] {{ '[[' }} {# [[ #} {{ b ]]",
+                     SQUARE.toStandard().collectEdits(text, 7, 32, regions).applyTo(text));
+    }
+
+    public void testRangeInsideRawBlock() {
+        String text = "[[ a ]]\n[% raw %]\nx = [[1, 2]];\ny = [[3]];\n[% endraw %]\n[[ b ]]";
+        int start = text.indexOf("y =");
+        int end = text.indexOf("[[ b");
+
+        assertEquals("y = [[3]];\n{% endraw %}\n", convertRange(text, start, end));
+    }
+
+    public void testRangeAfterOpenersInStrings() {
+        String text = "[[ x ~ '[[]][[' ]] [% if \"[#\" %]\n[# [[ c ]] #] [[ y ]]";
+        int start = text.indexOf("\n");
+
+        assertEquals("\n{# [[ c ]] #} {{ y }}", convertRange(text, start, text.length()));
+    }
+
+    private static String convertRange(CharSequence text, int start, int end) {
+        // The regions of the whole template, as the format processors use for any range
+        ProtectedRegions regions = SQUARE.findProtectedRegions(text);
+        return SQUARE.toStandard().collectEdits(text, start, end, regions).applyTo(text, start, end);
+    }
+}
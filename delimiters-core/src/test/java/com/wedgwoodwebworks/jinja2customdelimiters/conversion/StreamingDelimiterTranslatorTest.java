@@ -0,0 +1,138 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.CharBuffer;
+
+public class StreamingDelimiterTranslatorTest extends TestCase {
+
+    private static final String TEMPLATE =
+        "%% for item in items\r\n" +
+        "  <li>[[- item.name -]] [% if x %]100% [#- note -#][% endif %]</li>\n" +
+        "  ## a note with [[ y ]]\n" +
+        "<<<% plain %>>> [[[[ nested ]]]]\n" +
+        "%% endfor";
+
+    private static DelimiterTranslator translator() {
+        return DelimiterTranslator.toStandard("<<%", "%>>", "[[", "]]", "[#", "#]", "%%", "##");
+    }
+
+    public void testEveryChunkSizeMatchesWholeTextTranslation() throws IOException {
+        DelimiterTranslator translator = translator();
+        String expected = translator.translate(TEMPLATE);
+
+        for (int chunkSize = 1; chunkSize <= TEMPLATE.length(); chunkSize++) {
+            StreamingDelimiterTranslator stream = new StreamingDelimiterTranslator(translator);
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < TEMPLATE.length(); i += chunkSize) {
+                stream.write(TEMPLATE.substring(i, Math.min(i + chunkSize, TEMPLATE.length())), out);
+            }
+            stream.finish(out);
+
+            assertEquals("chunk size " + chunkSize, expected, out.toString());
+        }
+    }
+
+    public void testReaderToWriter() throws IOException {
+        StringWriter out = new StringWriter();
+
+        long read = StreamingDelimiterTranslator.translate(translator(), new StringReader(TEMPLATE), out);
+
+        assertEquals(TEMPLATE.length(), read);
+        assertEquals(translator().translate(TEMPLATE), out.toString());
+    }
+
+    public void testCharBufferChunksAreConsumed() throws IOException {
+        StreamingDelimiterTranslator stream = new StreamingDelimiterTranslator(
+            DelimiterTranslator.toStandard("[%", "%]", "[[", "]]", "[#", "#]"));
+        StringBuilder out = new StringBuilder();
+        CharBuffer first = CharBuffer.wrap("a [");
+        CharBuffer second = CharBuffer.wrap("[ b ]] c");
+
+        stream.write(first, out);
+        stream.write(second, out);
+        stream.finish(out);
+
+        assertFalse(first.hasRemaining());
+        assertFalse(second.hasRemaining());
+        assertEquals("a {{ b }} c", out.toString());
+    }
+
+    public void testIdentityPassesChunksThrough() throws IOException {
+        StreamingDelimiterTranslator stream = new StreamingDelimiterTranslator(
+            DelimiterTranslator.toStandard("{%", "%}", "{{", "}}", "{#", "#}"));
+        StringBuilder out = new StringBuilder();
+
+        stream.write("{{ x ", out);
+        assertEquals("{{ x ", out.toString());
+        stream.finish(out);
+    }
+
+    public void testWriteAfterFinishFails() throws IOException {
+        StreamingDelimiterTranslator stream = new StreamingDelimiterTranslator(translator());
+        stream.finish(new StringBuilder());
+
+        try {
+            stream.write("x", new StringBuilder());
+            fail("write after finish");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testMemoryDoesNotGrowWithInputLength() throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        DelimiterTranslator translator = translator();
+        StreamingDelimiterTranslator.translate(translator, new RepeatingReader(TEMPLATE + "\n", 1 << 20), Writer.nullWriter());
+
+        // 64 MB of template text through a fixed buffer
+        long threadId = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long read = StreamingDelimiterTranslator.translate(
+            translator, new RepeatingReader(TEMPLATE + "\n", 64 << 20), Writer.nullWriter());
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(64 << 20, read);
+        assertTrue("Streaming 64 MB allocated " + allocated + " bytes", allocated < 256 * 1024);
+    }
+
+    /**
+     * Produces {@code length} characters by repeating a template, without holding them in memory.
+     */
+    private static final class RepeatingReader extends Reader {
+        private final String text;
+        private long remaining;
+        private int position;
+
+        RepeatingReader(String text, long length) {
+            this.text = text;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int count = (int) Math.min(length, remaining);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = text.charAt(position);
+                position = (position + 1) % text.length();
+            }
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
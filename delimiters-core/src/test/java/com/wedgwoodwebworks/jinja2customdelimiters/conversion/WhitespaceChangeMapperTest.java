@@ -0,0 +1,72 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import junit.framework.TestCase;
+
+public class WhitespaceChangeMapperTest extends TestCase {
+
+    private static final DelimiterProfile SQUARE =
+        new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", "");
+
+    private static String format(String original, DelimiterProfile profile, String formatted) {
+        DelimiterEdits conversion = profile.toStandard().collectEdits(original, 0, original.length());
+        String standard = conversion.applyTo(original);
+        DelimiterEdits edits = WhitespaceChangeMapper.map(original, 0, original.length(), conversion, standard, formatted);
+        return edits == null ? null : edits.applyTo(original);
+    }
+
+    public void testWhitespaceChangesKeepCustomDelimiters() {
+        String original = "[% if x %]\n<p>[[y]]</p>\n      [% endif %]";
+        String formatted = "{% if x %}\n    <p>{{ y }}</p>\n{% endif %}";
+
+        assertEquals("[% if x %]\n    <p>[[ y ]]</p>\n[% endif %]", format(original, SQUARE, formatted));
+    }
+
+    public void testInsertionBeforeDelimiter() {
+        String original = "<div>[% if x %]</div>";
+        String formatted = "<div>\n  {% if x %}\n</div>";
+
+        assertEquals("<div>\n  [% if x %]\n</div>", format(original, SQUARE, formatted));
+    }
+
+    public void testOnlyChangedRunsAreEdited() {
+        String original = "[[ a ]]  [[ b ]]\n\n\n[[ c ]]";
+        DelimiterEdits conversion = SQUARE.toStandard().collectEdits(original, 0, original.length());
+        String standard = conversion.applyTo(original);
+        String formatted = "{{ a }} {{ b }}\n\n\n{{ c }}";
+
+        DelimiterEdits edits = WhitespaceChangeMapper.map(original, 0, original.length(), conversion, standard, formatted);
+
+        assertEquals(1, edits.size());
+        assertEquals(8, edits.getStart(0));
+        assertEquals(9, edits.getEnd(0));
+        assertEquals("", edits.getReplacement(0));
+    }
+
+    public void testNonWhitespaceChangeIsRejected() {
+        String original = "[% if x %]y[% endif %]";
+
+        assertNull(format(original, SQUARE, "{% if x %}z{% endif %}"));
+        assertNull(format(original, SQUARE, "{% if x %}y{% endif %}!"));
+    }
+
+    public void testWhitespaceInsideInsertedLineCloserIsIgnored() {
+        DelimiterProfile profile = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "#", "");
+        String original = "# if x\n  <p></p>\n# endif\n";
+        // The formatter tightened the space of the inserted " %}" and indented the body
+        String formatted = "{% if x%}\n    <p></p>\n{% endif %}\n";
+
+        assertEquals("# if x\n    <p></p>\n# endif\n", format(original, profile, formatted));
+    }
+
+    public void testSubRangeOffsets() {
+        String original = "ignored [[x]] [[ y]]";
+        int start = 8;
+        DelimiterEdits conversion = SQUARE.toStandard().collectEdits(original, start, original.length());
+        String standard = conversion.applyTo(original, start, original.length());
+        String formatted = "{{ x }} {{ y }}";
+
+        DelimiterEdits edits = WhitespaceChangeMapper.map(original, start, original.length(), conversion, standard, formatted);
+
+        assertEquals("ignored [[ x ]] [[ y ]]", edits.applyTo(original));
+    }
+}
@@ -3,3 +3,6 @@ plugins {
 }
 
 rootProject.name = "jinja2-custom-delimiters"
+
+// IntelliJ-free delimiter conversion engine, shared by the plugin and build tooling
+include("delimiters-core")
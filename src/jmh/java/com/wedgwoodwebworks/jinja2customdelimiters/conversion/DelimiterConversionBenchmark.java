@@ -0,0 +1,81 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the pre (custom to standard) and post (standard to custom) conversion passes.
+ *
+ * Reports ops/s per benchmark and bytes/s through the {@link Bytes} counter; run with the gc
+ * profiler (configured in build.gradle.kts) to get allocations per op.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class DelimiterConversionBenchmark {
+
+    @Param({"1024", "1048576", "10485760", "52428800"})
+    public int size;
+
+    @Param({"square", "angle-percent", "double-angle", "dollar-brace"})
+    public String profileName;
+
+    @Param({"0.1", "4"})
+    public double tagsPerLine;
+
+    @Param({"false", "true"})
+    public boolean whitespaceControl;
+
+    private DelimiterProfile profile;
+    private String customTemplate;
+    private String standardTemplate;
+
+    /**
+     * Characters processed, reported as a rate next to ops/s. Templates are ASCII, so this is bytes/s.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        profile = SyntheticTemplates.profile(profileName);
+        customTemplate = SyntheticTemplates.generate(profile, size, tagsPerLine, whitespaceControl);
+        standardTemplate = profile.toStandard().translate(customTemplate);
+    }
+
+    @Benchmark
+    public DelimiterEdits toStandard(Bytes counter) {
+        counter.bytes += customTemplate.length();
+        return profile.toStandard().collectEdits(customTemplate, 0, customTemplate.length());
+    }
+
+    @Benchmark
+    public DelimiterEdits fromStandard(Bytes counter) {
+        counter.bytes += standardTemplate.length();
+        return profile.fromStandard().collectEdits(standardTemplate, 0, standardTemplate.length());
+    }
+
+    @Benchmark
+    public String toStandardText(Bytes counter) {
+        counter.bytes += customTemplate.length();
+        return profile.toStandard().translate(customTemplate);
+    }
+}
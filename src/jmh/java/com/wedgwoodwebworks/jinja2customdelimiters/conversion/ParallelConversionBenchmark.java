@@ -0,0 +1,62 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the pre-format scan of very large templates with the number of fork-join threads.
+ *
+ * {@code parallelism = 0} is the sequential scan, for comparison; compare the other rows against it
+ * and against each other to see how the scan scales with cores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ParallelConversionBenchmark {
+
+    @Param({"20971520", "83886080"})
+    public int size;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"0.1", "4"})
+    public double tagsPerLine;
+
+    private DelimiterTranslator translator;
+    private String template;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        translator = SyntheticTemplates.SQUARE.toStandard();
+        template = SyntheticTemplates.generate(SyntheticTemplates.SQUARE, size, tagsPerLine, false);
+        pool = parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public DelimiterEdits toStandard() {
+        if (pool == null) {
+            return translator.collectEdits(template, 0, template.length());
+        }
+        return ParallelDelimiterScan.collectEdits(translator, template, 0, template.length(), () -> { },
+                                                  ProtectedRegions.NONE, pool);
+    }
+}
@@ -0,0 +1,84 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.conversion;
+
+import java.util.Random;
+
+/**
+ * Generates deterministic Jinja2-like templates for benchmarks.
+ */
+final class SyntheticTemplates {
+
+    static final DelimiterProfile SQUARE = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", "");
+    static final DelimiterProfile ANGLE_PERCENT = new DelimiterProfile("<%", "%>", "<$", "$>", "<#", "#>", "", "");
+    static final DelimiterProfile DOUBLE_ANGLE = new DelimiterProfile("<<%", "%>>", "<<", ">>", "<<#", "#>>", "", "");
+    static final DelimiterProfile DOLLAR_BRACE = new DelimiterProfile("{%", "%}", "${", "}", "{#", "#}", "", "");
+
+    private static final String[] MARKUP = {
+        "<div class=\"row\">",
+        "  <p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>",
+        "  <script>var config = { items: [1, 2, 3], nested: { a: 1 } };</script>",
+        "</div>",
+        "<li class=\"item\">plain text with 100% literal [brackets] and #hashes</li>",
+    };
+
+    private SyntheticTemplates() {
+    }
+
+    static DelimiterProfile profile(String name) {
+        switch (name) {
+            case "square":
+                return SQUARE;
+            case "angle-percent":
+                return ANGLE_PERCENT;
+            case "double-angle":
+                return DOUBLE_ANGLE;
+            case "dollar-brace":
+                return DOLLAR_BRACE;
+            default:
+                throw new IllegalArgumentException("Unknown profile: " + name);
+        }
+    }
+
+    /**
+     * @param size              approximate template size in characters
+     * @param tagsPerLine       average number of template tags per line
+     * @param whitespaceControl whether tags use {@code -}/{@code +} whitespace control markers
+     */
+    static String generate(DelimiterProfile profile, int size, double tagsPerLine, boolean whitespaceControl) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(size + 256);
+
+        while (text.length() < size) {
+            text.append(MARKUP[random.nextInt(MARKUP.length)]);
+
+            double tags = tagsPerLine;
+            while (tags >= 1 || random.nextDouble() < tags) {
+                appendTag(text, profile, random, whitespaceControl);
+                tags--;
+            }
+            text.append('\n');
+        }
+
+        text.setLength(size);
+        return text.toString();
+    }
+
+    private static void appendTag(StringBuilder text, DelimiterProfile profile, Random random, boolean whitespaceControl) {
+        String open = whitespaceControl && random.nextBoolean() ? "-" : "";
+        String close = whitespaceControl && random.nextBoolean() ? "+" : "";
+        text.append(' ');
+        switch (random.nextInt(3)) {
+            case 0:
+                text.append(profile.getBlockStart()).append(open).append(" if user.active ")
+                    .append(close).append(profile.getBlockEnd());
+                break;
+            case 1:
+                text.append(profile.getVariableStart()).append(open).append(" user.name | title ")
+                    .append(close).append(profile.getVariableEnd());
+                break;
+            default:
+                text.append(profile.getCommentStart()).append(open).append(" note ")
+                    .append(close).append(profile.getCommentEnd());
+                break;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.Language;
+import com.intellij.mock.MockApplication;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.impl.source.tree.FileElement;
+import com.intellij.psi.tree.IFileElementType;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2DelimitersSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of the pre-format processor on a file it does not convert: any file under the
+ * stock profile, and a file of a non-Jinja language under a custom profile.
+ *
+ * Each call runs {@link CustomJinja2PreFormatProcessor#process} on the root node of a file, as the
+ * formatter does, against a mock application holding the settings service. Both exits return
+ * before the node's PSI, the containing file or the document are looked up, so nothing else of
+ * the IDE is needed; a Jinja2 file would go on to those and is not measured here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class FormattingGateBenchmark {
+
+    @Param({"Python", "HTML", "JSON", "yaml"})
+    public String languageId;
+
+    @Param({"stock", "custom"})
+    public String profileName;
+
+    private final CustomJinja2PreFormatProcessor processor = new CustomJinja2PreFormatProcessor();
+    private Disposable disposable;
+    private ASTNode fileNode;
+    private TextRange range;
+
+    @Setup
+    public void setUp() {
+        disposable = Disposer.newDisposable();
+        MockApplication application = MockApplication.setUp(disposable);
+        Jinja2DelimitersSettings settings = new Jinja2DelimitersSettings();
+        if (profileName.equals("custom")) {
+            settings.setDelimiters(new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", ""));
+        }
+        application.registerService(Jinja2DelimitersSettings.class, settings);
+
+        Language language = new Language(languageId) {
+        };
+        String text = "x = 1\n".repeat(1000);
+        fileNode = new FileElement(new IFileElementType(language), text);
+        range = new TextRange(0, text.length());
+    }
+
+    @TearDown
+    public void tearDown() {
+        Disposer.dispose(disposable);
+    }
+
+    @Benchmark
+    public TextRange preFormatExit() {
+        return processor.process(fileNode, range);
+    }
+}
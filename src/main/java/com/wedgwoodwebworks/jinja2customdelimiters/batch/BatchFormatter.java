@@ -0,0 +1,261 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.batch;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.codeStyle.CodeStyleManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.formatting.FileProfileResolver;
+import com.wedgwoodwebworks.jinja2customdelimiters.formatting.JinjaLanguageFilter;
+import com.wedgwoodwebworks.jinja2customdelimiters.formatting.PrecomputedDelimiterEdits;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.concurrency.CancellablePromise;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Formats many Jinja2 templates through the regular code style pipeline, so every file takes the
+ * same custom-delimiter round trip (pre-format conversion, Jinja2 formatter, post-format restore)
+ * as an interactive reformat.
+ *
+ * Loading documents, resolving PSI and scanning for custom delimiters run concurrently in
+ * non-blocking read actions, a bounded window ahead of the formatter. Formatting needs the write
+ * lock, so it runs on the EDT in write commands of {@link #FILES_PER_COMMAND} files, each followed
+ * by one commit and one save. Progress is reported per file and cancellation is checked between
+ * files; commands that already ran stay applied.
+ */
+public final class BatchFormatter {
+
+    private static final Logger LOG = Logger.getInstance(BatchFormatter.class);
+
+    static final int FILES_PER_COMMAND = 50;
+    // Files prepared ahead of the one being formatted
+    private static final int PREFETCH = 2 * FILES_PER_COMMAND;
+
+    private final Project project;
+    private final ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+        "Jinja2 Batch Format", Runtime.getRuntime().availableProcessors());
+
+    public BatchFormatter(@NotNull Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Lists the files under the given roots, skipping hidden and excluded directories. Call in a
+     * read action.
+     */
+    @NotNull
+    public static List<VirtualFile> collectFiles(@NotNull Project project, @NotNull Collection<VirtualFile> roots,
+                                                 @NotNull ProgressIndicator indicator) {
+        ProjectFileIndex fileIndex = project.isDefault() ? null : ProjectFileIndex.getInstance(project);
+        List<VirtualFile> files = new ArrayList<>();
+        for (VirtualFile root : roots) {
+            VfsUtilCore.iterateChildrenRecursively(
+                root,
+                file -> !file.isDirectory() || file.equals(root) ||
+                        !file.getName().startsWith(".") && (fileIndex == null || !fileIndex.isExcluded(file)),
+                file -> {
+                    indicator.checkCanceled();
+                    if (!file.isDirectory()) {
+                        files.add(file);
+                    }
+                    return true;
+                });
+        }
+        return files;
+    }
+
+    /**
+     * Formats the given files; files that are not Jinja2 templates are skipped. Blocks until done,
+     * so it must not be called on the EDT.
+     *
+     * @throws ProcessCanceledException when the indicator is canceled; files formatted so far stay formatted
+     */
+    @NotNull
+    public Result format(@NotNull List<VirtualFile> files, @NotNull ProgressIndicator indicator) {
+        ApplicationManager.getApplication().assertIsNonDispatchThread();
+        indicator.setIndeterminate(false);
+
+        Result result = new Result();
+        Deque<CancellablePromise<PsiFile>> prepared = new ArrayDeque<>(PREFETCH);
+        int submitted = 0;
+        List<PsiFile> batch = new ArrayList<>(FILES_PER_COMMAND);
+
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                VirtualFile file = files.get(i);
+                indicator.checkCanceled();
+                indicator.setFraction((double) i / files.size());
+                indicator.setText2(file.getPresentableUrl());
+
+                while (submitted < files.size() && prepared.size() < PREFETCH) {
+                    VirtualFile next = files.get(submitted++);
+                    prepared.add(ReadAction.nonBlocking(() -> prepare(next))
+                                     .expireWith(project)
+                                     .wrapProgress(indicator)
+                                     .submit(executor));
+                }
+
+                PsiFile psiFile = await(prepared.poll(), file, result);
+                if (psiFile == null) {
+                    continue;
+                }
+                batch.add(psiFile);
+                if (batch.size() == FILES_PER_COMMAND) {
+                    formatBatch(batch, result, indicator);
+                    batch.clear();
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                formatBatch(batch, result, indicator);
+            }
+        } finally {
+            for (CancellablePromise<PsiFile> promise : prepared) {
+                promise.cancel();
+            }
+        }
+        indicator.setFraction(1);
+        return result;
+    }
+
+    /**
+     * Runs in a read action on a pool thread: resolves the PSI, loads the document and scans it for
+     * custom delimiters, so the EDT only formats.
+     *
+     * @return the file to format, or null if it is not a Jinja2 template
+     */
+    @Nullable
+    private PsiFile prepare(@NotNull VirtualFile file) {
+        if (!file.isValid() || file.isDirectory()) {
+            return null;
+        }
+        PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+        if (psiFile == null || !JinjaLanguageFilter.isJinjaLanguage(psiFile.getLanguage())) {
+            return null;
+        }
+        Document document = PsiDocumentManager.getInstance(project).getDocument(psiFile);
+        if (document != null) {
+            DelimiterProfile profile = FileProfileResolver.resolve(psiFile, document);
+            PrecomputedDelimiterEdits.precompute(document, profile);
+        }
+        return psiFile;
+    }
+
+    @Nullable
+    private static PsiFile await(CancellablePromise<PsiFile> promise, VirtualFile file, Result result) {
+        try {
+            PsiFile psiFile = promise.get();
+            if (psiFile == null) {
+                result.skipped++;
+            }
+            return psiFile;
+        } catch (CancellationException e) {
+            // The read action was canceled together with the progress
+            throw new ProcessCanceledException(e);
+        } catch (ExecutionException e) {
+            result.failures.add(file.getPath() + ": " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessCanceledException(e);
+        }
+        return null;
+    }
+
+    private void formatBatch(List<PsiFile> batch, Result result, ProgressIndicator indicator) {
+        ApplicationManager.getApplication().invokeAndWait(() -> {
+            PsiDocumentManager documentManager = PsiDocumentManager.getInstance(project);
+            List<Document> documents = new ArrayList<>(batch.size());
+
+            WriteCommandAction.writeCommandAction(project).withName("Format Jinja2 Templates").run(() -> {
+                CodeStyleManager codeStyleManager = CodeStyleManager.getInstance(project);
+                for (PsiFile psiFile : batch) {
+                    if (indicator.isCanceled()) {
+                        // Leave the rest unformatted; what ran so far is kept as one undoable command
+                        break;
+                    }
+                    if (!psiFile.isValid()) {
+                        result.failures.add(psiFile.getName() + ": file was deleted");
+                        continue;
+                    }
+                    Document document = documentManager.getDocument(psiFile);
+                    long stamp = document != null ? document.getModificationStamp() : -1;
+                    try {
+                        codeStyleManager.reformat(psiFile);
+                    } catch (ProcessCanceledException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        LOG.warn("Batch format failed for " + psiFile.getName(), e);
+                        result.failures.add(psiFile.getVirtualFile().getPath() + ": " + e);
+                        continue;
+                    }
+                    result.formatted++;
+                    if (document != null && document.getModificationStamp() != stamp) {
+                        result.changed++;
+                        documents.add(document);
+                    }
+                }
+            });
+
+            // One commit and one save per command instead of per file
+            documentManager.commitAllDocuments();
+            FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
+            for (Document document : documents) {
+                fileDocumentManager.saveDocument(document);
+            }
+        });
+    }
+
+    /**
+     * Totals of a {@link #format} run. Updated by the calling thread and, inside
+     * {@code invokeAndWait}, by the EDT; read it after {@link #format} returns.
+     */
+    public static final class Result {
+        private int formatted;
+        private int changed;
+        private int skipped;
+        private final List<String> failures = new ArrayList<>();
+
+        public int getFormatted() {
+            return formatted;
+        }
+
+        public int getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return files that were not Jinja2 templates
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        @NotNull
+        public List<String> getFailures() {
+            return Collections.unmodifiableList(failures);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.batch;
+
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Headless command formatting Jinja2 templates with the IDE formatter and this plugin's
+ * custom-delimiter round trip:
+ *
+ * <pre>
+ *   pycharm jinja2-format [--project &lt;dir&gt;] &lt;file-or-directory&gt;...
+ * </pre>
+ *
+ * Without {@code --project} the default project's code style is used. Exits with 0 on success,
+ * 1 if any file failed or a given path does not exist, and 2 on usage errors.
+ */
+public class Jinja2FormatStarter implements ApplicationStarter {
+
+    private static final Logger LOG = Logger.getInstance(Jinja2FormatStarter.class);
+
+    private static final String USAGE = "Usage: jinja2-format [--project <dir>] <file-or-directory>...";
+
+    @Override
+    public int getRequiredModality() {
+        // Formatting waits for read actions and EDT batches, so the starter must not run on the EDT
+        return NOT_IN_EDT;
+    }
+
+    @Override
+    public void main(@NotNull List<String> args) {
+        int exitCode;
+        try {
+            // The first argument is the command name
+            exitCode = run(args.subList(1, args.size()));
+        } catch (Throwable t) {
+            LOG.error("jinja2-format failed", t);
+            exitCode = 2;
+        }
+        System.exit(exitCode);
+    }
+
+    private static int run(List<String> args) {
+        Path projectDir = null;
+        List<Path> roots = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.equals("--project") && i + 1 < args.size()) {
+                projectDir = Paths.get(args.get(++i)).toAbsolutePath();
+            } else if (arg.startsWith("--")) {
+                System.err.println(USAGE);
+                return 2;
+            } else {
+                roots.add(Paths.get(arg).toAbsolutePath());
+            }
+        }
+        if (roots.isEmpty()) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        Project project = projectDir != null
+                          ? ProjectUtil.openOrImport(projectDir, null, false)
+                          : ProjectManager.getInstance().getDefaultProject();
+        if (project == null) {
+            System.err.println("Cannot open project " + projectDir);
+            return 2;
+        }
+
+        try {
+            ProgressIndicator indicator = new EmptyProgressIndicator();
+            List<String> failures = new ArrayList<>();
+            List<VirtualFile> refreshed = refreshRoots(roots, failures);
+            List<VirtualFile> files = ReadAction.compute(() -> BatchFormatter.collectFiles(project, refreshed, indicator));
+            long started = System.nanoTime();
+            BatchFormatter.Result result = new BatchFormatter(project).format(files, indicator);
+            double seconds = (System.nanoTime() - started) / 1e9;
+
+            failures.addAll(result.getFailures());
+            for (String failure : failures) {
+                System.err.println("error: " + failure);
+            }
+            System.out.println(String.format(Locale.ROOT,
+                "Formatted %d files in %.2f s (%.0f files/s): %d changed, %d skipped, %d failed",
+                result.getFormatted(), seconds, result.getFormatted() / Math.max(seconds, 1e-9),
+                result.getChanged(), result.getSkipped(), failures.size()));
+            return failures.isEmpty() ? 0 : 1;
+        } finally {
+            if (!project.isDefault()) {
+                ApplicationManager.getApplication().invokeAndWait(
+                    () -> ProjectManager.getInstance().closeAndDispose(project));
+            }
+        }
+    }
+
+    /**
+     * Brings the VFS up to date with the given roots, which were probably never opened in the IDE.
+     * Roots that do not exist are added to {@code failures}, so the run cannot pass without
+     * checking them.
+     */
+    private static List<VirtualFile> refreshRoots(List<Path> roots, List<String> failures) {
+        List<VirtualFile> files = new ArrayList<>();
+        for (Path root : roots) {
+            VirtualFile file = LocalFileSystem.getInstance().refreshAndFindFileByNioFile(root);
+            if (file == null) {
+                failures.add(root + ": not found");
+                continue;
+            }
+            if (file.isDirectory()) {
+                VfsUtil.markDirtyAndRefresh(false, true, true, file);
+            }
+            files.add(file);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,98 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.psi.PsiFile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Java Flight Recorder events of the format processors, so the time of each conversion pass shows
+ * up under its own name in recordings instead of blending into the formatter's frames.
+ *
+ * Usage follows the JFR pattern: create and {@code begin()} an event, then end it with
+ * {@link ConversionEvent#end}. While the event is disabled, {@code shouldCommit()} is false, no
+ * field is computed and the JIT removes the allocation.
+ */
+final class ConversionEvents {
+
+    private static final String CATEGORY = "Jinja2 Custom Delimiters";
+
+    private ConversionEvents() {
+    }
+
+    @Category(CATEGORY)
+    @StackTrace(false)
+    abstract static class ConversionEvent extends Event {
+
+        @Label("File Name")
+        String fileName;
+
+        @Label("Range Length")
+        @Description("Characters in the range passed to the processor")
+        int rangeLength;
+
+        @Label("Replacements")
+        @Description("Delimiters replaced in the document")
+        int replacementCount;
+
+        @Label("Delimiter Profile")
+        String profileId;
+
+        /**
+         * Fills in the fields and commits the event if it is being recorded.
+         */
+        void end(@NotNull PsiFile file, int rangeLength, int replacementCount, @NotNull DelimiterProfile profile) {
+            if (shouldCommit()) {
+                this.fileName = file.getName();
+                this.rangeLength = rangeLength;
+                this.replacementCount = replacementCount;
+                this.profileId = profile.toString();
+                commit();
+            }
+        }
+    }
+
+    @Name("com.wedgwoodwebworks.jinja2customdelimiters.PreConversion")
+    @Label("Pre-Format Conversion")
+    @Description("Custom delimiters converted to standard delimiters before formatting")
+    static final class PreConversion extends ConversionEvent {
+    }
+
+    @Name("com.wedgwoodwebworks.jinja2customdelimiters.PostConversion")
+    @Label("Post-Format Conversion")
+    @Description("Standard delimiters converted back to custom delimiters after formatting")
+    static final class PostConversion extends ConversionEvent {
+    }
+
+    @Name("com.wedgwoodwebworks.jinja2customdelimiters.DocumentCommit")
+    @Label("Document Commit")
+    @Description("PSI commit of a document after its delimiters were replaced")
+    static final class DocumentCommit extends ConversionEvent {
+    }
+
+    @Name("com.wedgwoodwebworks.jinja2customdelimiters.CacheLookup")
+    @Label("Conversion Cache Lookup")
+    @Description("Lookup of an earlier conversion result for unchanged text")
+    static final class CacheLookup extends ConversionEvent {
+
+        @Label("Direction")
+        String direction;
+
+        @Label("Hit")
+        boolean hit;
+
+        void end(@NotNull PsiFile file, int rangeLength, @NotNull DelimiterProfile profile,
+                 @NotNull ConversionResultCache.Direction direction, boolean hit) {
+            if (shouldCommit()) {
+                this.direction = direction.name();
+                this.hit = hit;
+                end(file, rangeLength, 0, profile);
+            }
+        }
+    }
+}
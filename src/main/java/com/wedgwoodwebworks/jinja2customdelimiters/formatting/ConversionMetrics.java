@@ -0,0 +1,187 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of the format processors, for spotting pathological templates.
+ *
+ * Updates are a few {@link LongAdder} increments per call, cheap enough to stay on in production;
+ * the numbers are shown and saved from the plugin settings. Invocations that return before
+ * converting (stock delimiters, other languages, the shadow copy) are only counted as invocations.
+ */
+public final class ConversionMetrics {
+
+    /** Pre-format pass, custom to standard delimiters. */
+    public static final ConversionMetrics PRE_FORMAT = new ConversionMetrics("Pre-format (custom to standard)");
+    /** Post-format pass, standard back to custom delimiters. */
+    public static final ConversionMetrics POST_FORMAT = new ConversionMetrics("Post-format (standard to custom)");
+
+    private final String name;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder conversions = new LongAdder();
+    private final LongAdder charsScanned = new LongAdder();
+    private final LongAdder replacements = new LongAdder();
+    private final Histogram conversionTime = new Histogram();
+    private final Histogram commitTime = new Histogram();
+
+    // Slowest conversion since the last reset; written rarely, so a lock is fine
+    private volatile long slowestNanos;
+    private String slowestFile;
+    private int slowestLength;
+
+    private ConversionMetrics(String name) {
+        this.name = name;
+    }
+
+    void invoked() {
+        invocations.increment();
+    }
+
+    void cacheHit() {
+        cacheHits.increment();
+    }
+
+    void scanned(int chars) {
+        charsScanned.add(chars);
+    }
+
+    void committed(long nanos) {
+        commitTime.record(nanos);
+    }
+
+    /**
+     * Records a finished conversion of {@code fileName}, a document of {@code length} characters.
+     */
+    void converted(@NotNull String fileName, int length, int replacementCount, long nanos) {
+        conversions.increment();
+        replacements.add(replacementCount);
+        conversionTime.record(nanos);
+        if (nanos > slowestNanos) {
+            synchronized (this) {
+                if (nanos > slowestNanos) {
+                    slowestNanos = nanos;
+                    slowestFile = fileName;
+                    slowestLength = length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears the counters of both passes and of the conversion result cache.
+     */
+    public static void resetAll() {
+        PRE_FORMAT.reset();
+        POST_FORMAT.reset();
+        ConversionResultCache.resetCounts();
+    }
+
+    private void reset() {
+        invocations.reset();
+        cacheHits.reset();
+        conversions.reset();
+        charsScanned.reset();
+        replacements.reset();
+        conversionTime.reset();
+        commitTime.reset();
+        synchronized (this) {
+            slowestNanos = 0;
+            slowestFile = null;
+            slowestLength = 0;
+        }
+    }
+
+    /**
+     * @return a plain-text report of both passes and the conversion result cache
+     */
+    @NotNull
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        PRE_FORMAT.appendTo(report);
+        report.append('\n');
+        POST_FORMAT.appendTo(report);
+        report.append('\n');
+        report.append(String.format(Locale.ROOT, "Conversion result cache: %,d hits, %,d misses%n",
+                                    ConversionResultCache.getHitCount(), ConversionResultCache.getMissCount()));
+        return report.toString();
+    }
+
+    private void appendTo(StringBuilder report) {
+        long invoked = invocations.sum();
+        long cached = cacheHits.sum();
+        long converted = conversions.sum();
+        report.append(name).append('\n');
+        report.append(String.format(Locale.ROOT, "  Invocations: %,d (%,d exited early, %,d answered from cache)%n",
+                                    invoked, Math.max(0, invoked - cached - converted), cached));
+        report.append(String.format(Locale.ROOT, "  Conversions: %,d, %,d chars scanned, %,d replacements%n",
+                                    converted, charsScanned.sum(), replacements.sum()));
+        report.append("  Conversion time: ").append(conversionTime.describe()).append('\n');
+        report.append("  Commit time: ").append(commitTime.describe()).append('\n');
+        synchronized (this) {
+            if (slowestFile != null) {
+                report.append(String.format(Locale.ROOT, "  Slowest: %s (%,d chars) in %s%n",
+                                            slowestFile, slowestLength, formatNanos(slowestNanos)));
+            }
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000.0);
+    }
+
+    /**
+     * Lock-free histogram with power-of-two microsecond buckets.
+     */
+    private static final class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            totalNanos.add(nanos);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            totalNanos.reset();
+        }
+
+        String describe() {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return "no samples";
+            }
+            return String.format(Locale.ROOT, "total %s, p50 < %s, p90 < %s, p99 < %s",
+                                 formatNanos(totalNanos.sum()), percentile(snapshot, total, 0.5),
+                                 percentile(snapshot, total, 0.9), percentile(snapshot, total, 0.99));
+        }
+
+        // Upper bound of the bucket holding the percentile
+        private static String percentile(long[] snapshot, long total, double fraction) {
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return formatNanos((1L << i) * 1000);
+                }
+            }
+            return formatNanos((1L << (BUCKETS - 1)) * 1000);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers per document which ranges were found to need no conversion, so repeated pre/post
+ * calls on unchanged text return without scanning.
+ *
+ * The platform may call the processors several times for the same text (processElement and
+ * processText for one range, multi-range formatting, format-on-save of an untouched template). An
+ * entry holds the modification stamp and range seen when the call started. A conversion that
+ * edited the document is not stored: the edit changes the stamp, so no later call starts from the
+ * same input again, and skipping the pre pass would hand custom delimiters to the formatter. Any
+ * later edit, including the post pass restoring delimiters, changes the stamp and so invalidates
+ * every entry.
+ */
+final class ConversionResultCache {
+
+    enum Direction {
+        TO_STANDARD,
+        FROM_STANDARD
+    }
+
+    private static final Key<ConversionResultCache> KEY = Key.create("Jinja2CustomDelimiters.ConversionResultCache");
+
+    // Small per document: entries only survive as long as the modification stamp is unchanged
+    private static final int CAPACITY = 8;
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private final Entry[] entries = new Entry[CAPACITY];
+    private int next;
+
+    private ConversionResultCache() {
+    }
+
+    /**
+     * @param stamp the document's modification stamp when the call started
+     * @return true if an earlier call found nothing to convert in {@code range} at this stamp
+     */
+    static boolean lookup(@NotNull Document document, @NotNull Direction direction, long stamp,
+                          @NotNull TextRange range, @NotNull DelimiterProfile profile) {
+        ConversionResultCache cache = document.getUserData(KEY);
+        if (cache != null && stamp == document.getModificationStamp()) {
+            synchronized (cache) {
+                for (Entry entry : cache.entries) {
+                    if (entry != null && entry.matches(direction, stamp, range, profile)) {
+                        HITS.increment();
+                        return true;
+                    }
+                }
+            }
+        }
+        MISSES.increment();
+        return false;
+    }
+
+    /**
+     * Records that {@code range} had nothing to convert at {@code stamp}. Call only when the
+     * document was left unchanged, with the stamp read before the lookup.
+     */
+    static void store(@NotNull Document document, @NotNull Direction direction, long stamp,
+                      @NotNull TextRange range, @NotNull DelimiterProfile profile) {
+        if (stamp != document.getModificationStamp()) {
+            return;
+        }
+        ConversionResultCache cache = document.getUserData(KEY);
+        if (cache == null) {
+            // Only called from write actions, so there is no competing writer
+            cache = new ConversionResultCache();
+            document.putUserData(KEY, cache);
+        }
+        Entry entry = new Entry(direction, stamp, range, profile);
+        synchronized (cache) {
+            // Round-robin eviction of the oldest entry
+            cache.entries[cache.next] = entry;
+            cache.next = (cache.next + 1) % CAPACITY;
+        }
+    }
+
+    static long getHitCount() {
+        return HITS.sum();
+    }
+
+    static long getMissCount() {
+        return MISSES.sum();
+    }
+
+    static void resetCounts() {
+        HITS.reset();
+        MISSES.reset();
+    }
+
+    private static final class Entry {
+        final Direction direction;
+        final long stamp;
+        final int rangeStart;
+        final int rangeEnd;
+        final DelimiterProfile profile;
+
+        Entry(Direction direction, long stamp, TextRange range, DelimiterProfile profile) {
+            this.direction = direction;
+            this.stamp = stamp;
+            this.rangeStart = range.getStartOffset();
+            this.rangeEnd = range.getEndOffset();
+            this.profile = profile;
+        }
+
+        boolean matches(Direction direction, long stamp, TextRange range, DelimiterProfile profile) {
+            return this.stamp == stamp &&
+                   this.direction == direction &&
+                   rangeStart == range.getStartOffset() &&
+                   rangeEnd == range.getEndOffset() &&
+                   (this.profile == profile ||
+                    this.profile.hashCode() == profile.hashCode() && this.profile.equals(profile));
+        }
+    }
+}
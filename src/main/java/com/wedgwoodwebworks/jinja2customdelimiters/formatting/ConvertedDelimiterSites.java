@@ -0,0 +1,169 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.RangeMarker;
+import com.intellij.openapi.util.Key;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterTranslator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Positions rewritten by {@link CustomJinja2PreFormatProcessor}, kept on the document until
+ * {@link CustomJinja2PostFormatProcessor} reverts them.
+ *
+ * Each site is a range marker over the standard delimiter written by the pre pass, so it follows
+ * the whitespace changes made by the formatter. The post pass then restores only these sites
+ * instead of rescanning the range and converting literal braces that were never custom delimiters.
+ * All sites are taken by the first post pass after the format, so none of them outlives it and
+ * rewrites delimiters the user edits by hand later.
+ */
+final class ConvertedDelimiterSites {
+
+    private static final Key<ConvertedDelimiterSites> KEY = Key.create("Jinja2CustomDelimiters.ConvertedSites");
+    private static final long PENDING = -1;
+
+    private final List<RangeMarker> markers = new ArrayList<>();
+    private final List<String> standardTexts = new ArrayList<>();
+    private final List<String> originalTexts = new ArrayList<>();
+    // Document stamp after the sites were restored, or PENDING while they wait for the post pass
+    private long restoredStamp = PENDING;
+
+    private ConvertedDelimiterSites() {
+    }
+
+    /**
+     * Records the sites of edits that were just applied to the document. Recording an empty edit
+     * list still tells the post processor that the range was handled and holds no custom delimiters.
+     *
+     * @param text the document text the edits were collected from, before they were applied
+     */
+    static void record(@NotNull Document document, @NotNull CharSequence text, @NotNull DelimiterEdits edits) {
+        ConvertedDelimiterSites sites = document.getUserData(KEY);
+        if (sites == null || sites.restoredStamp != PENDING) {
+            sites = new ConvertedDelimiterSites();
+            document.putUserData(KEY, sites);
+        }
+
+        int delta = 0;
+        for (int i = 0; i < edits.size(); i++) {
+            String replacement = edits.getReplacement(i);
+            int start = edits.getStart(i) + delta;
+            sites.markers.add(document.createRangeMarker(start, start + replacement.length()));
+            sites.standardTexts.add(replacement);
+            sites.originalTexts.add(text.subSequence(edits.getStart(i), edits.getEnd(i)).toString());
+            delta += replacement.length() - (edits.getEnd(i) - edits.getStart(i));
+        }
+    }
+
+    /**
+     * Removes all recorded sites and returns the edits that restore them. Sites outside the range
+     * being post-processed belong to another range of the same format and are restored as well.
+     *
+     * A site the formatter changed beyond whitespace is converted on its own with
+     * {@code fromStandard}; the other sites are still restored exactly, line prefixes included.
+     *
+     * @return the restoring edits; empty if an earlier post pass of the same format restored the
+     *         sites already; null if no pre pass recorded sites, in which case the caller has to
+     *         fall back to scanning the range
+     */
+    @Nullable
+    static DelimiterEdits takeEdits(@NotNull Document document, @NotNull DelimiterTranslator fromStandard) {
+        ConvertedDelimiterSites sites = document.getUserData(KEY);
+        if (sites == null) {
+            return null;
+        }
+        if (sites.restoredStamp != PENDING) {
+            // Restored by the post pass for another range, unless the document changed since
+            return sites.restoredStamp == document.getModificationStamp() ? new DelimiterEdits(0) : null;
+        }
+        document.putUserData(KEY, null);
+
+        CharSequence chars = document.getImmutableCharSequence();
+        List<Restore> restores = new ArrayList<>(sites.markers.size());
+        for (int i = 0; i < sites.markers.size(); i++) {
+            RangeMarker marker = sites.markers.get(i);
+            if (!marker.isValid()) {
+                // The text holding the delimiter was deleted
+                continue;
+            }
+            int start = marker.getStartOffset();
+            int end = marker.getEndOffset();
+            marker.dispose();
+
+            if (equalsIgnoringWhitespace(chars, start, end, sites.standardTexts.get(i))) {
+                restores.add(new Restore(start, end, sites.originalTexts.get(i)));
+            } else {
+                int scanStart = fromStandard.expandStart(chars, start);
+                int scanEnd = fromStandard.expandEnd(chars, end);
+                DelimiterEdits scanned = fromStandard.collectEdits(chars, scanStart, scanEnd);
+                for (int j = 0; j < scanned.size(); j++) {
+                    restores.add(new Restore(scanned.getStart(j), scanned.getEnd(j), scanned.getReplacement(j)));
+                }
+            }
+        }
+
+        // Sites recorded by several pre passes are not necessarily in document order
+        restores.sort(Comparator.comparingInt(restore -> restore.start));
+
+        DelimiterEdits edits = new DelimiterEdits(restores.size());
+        int previousEnd = 0;
+        for (Restore restore : restores) {
+            // A rescanned site may have found a delimiter that is also a recorded site
+            if (restore.start >= previousEnd) {
+                edits.add(restore.start, restore.end, restore.text);
+                previousEnd = restore.end;
+            }
+        }
+        return edits;
+    }
+
+    /**
+     * Notes that the edits returned by {@link #takeEdits} were applied, so further post passes of
+     * the same format leave the document alone instead of scanning their range.
+     */
+    static void markRestored(@NotNull Document document) {
+        ConvertedDelimiterSites restored = new ConvertedDelimiterSites();
+        restored.restoredStamp = document.getModificationStamp();
+        document.putUserData(KEY, restored);
+    }
+
+    /**
+     * @return true if {@code chars[start, end)} is {@code expected} up to whitespace the formatter
+     *         inserted or removed, as around the closer of a prefixed line
+     */
+    private static boolean equalsIgnoringWhitespace(CharSequence chars, int start, int end, String expected) {
+        int i = start;
+        int j = 0;
+        while (true) {
+            while (i < end && Character.isWhitespace(chars.charAt(i))) {
+                i++;
+            }
+            while (j < expected.length() && Character.isWhitespace(expected.charAt(j))) {
+                j++;
+            }
+            if (i == end || j == expected.length()) {
+                return i == end && j == expected.length();
+            }
+            if (chars.charAt(i++) != expected.charAt(j++)) {
+                return false;
+            }
+        }
+    }
+
+    private static final class Restore {
+        final int start;
+        final int end;
+        final String text;
+
+        Restore(int start, int end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+}
@@ -3,13 +3,17 @@ package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
 import com.intellij.lang.Language;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.codeStyle.CodeStyleSettings;
 import com.intellij.psi.impl.source.codeStyle.PostFormatProcessor;
-import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2DelimitersSettings;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterTranslator;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.ParallelDelimiterScan;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -25,12 +29,18 @@ public class CustomJinja2PostFormatProcessor implements PostFormatProcessor {
     @NotNull
     @Override
     public PsiElement processElement(@NotNull PsiElement source, @NotNull CodeStyleSettings settings) {
+        ConversionMetrics.POST_FORMAT.invoked();
         try {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("PostFormatProcessor: Processing element");
             }
 
-            PsiFile file = source.getContainingFile();
+            // Stock delimiters everywhere: nothing to convert, skip before touching PSI
+            if (!FileProfileResolver.mayConvert()) {
+                return source;
+            }
+
+            PsiFile file = source instanceof PsiFile ? (PsiFile) source : source.getContainingFile();
             if (file == null) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("PostFormatProcessor: File is null, skipping");
@@ -40,26 +50,37 @@ public class CustomJinja2PostFormatProcessor implements PostFormatProcessor {
 
             // Check if this is a Jinja2 file
             Language fileLanguage = file.getLanguage();
-            if (!"Jinja2".equals(fileLanguage.getID()) && !fileLanguage.getID().contains("Jinja")) {
+            if (!JinjaLanguageFilter.isJinjaLanguage(fileLanguage)) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("PostFormatProcessor: Not a Jinja2 file (language: " + fileLanguage.getID() + "), skipping");
                 }
                 return source;
             }
 
+            // Copy made by the shadow formatter: its standard delimiters are restored by mapping
+            if (ShadowCopyFormatter.isShadowCopy(file)) {
+                return source;
+            }
+
             if (LOG.isDebugEnabled()) {
                 LOG.debug("PostFormatProcessor: Processing Jinja2 file: " + file.getName());
             }
 
             Document document = PsiDocumentManager.getInstance(source.getProject()).getDocument(file);
             if (document != null) {
-                convertDelimiters(document, source.getTextRange(), file);
+                // Same decision as the pre processor made for this file
+                DelimiterProfile profile = FileProfileResolver.takeFormatProfile(file, document);
+                if (!profile.isStandard()) {
+                    convertDelimiters(document, source.getTextRange(), file, profile);
+                }
             } else {
                 LOG.warn("PostFormatProcessor: Document is null for file: " + file.getName());
             }
 
             return source;
 
+        } catch (ProcessCanceledException e) {
+            throw e;
         } catch (Exception e) {
             LOG.error("PostFormatProcessor: Failed to process element", e);
             return source; // Return original element on error
@@ -71,132 +92,145 @@ public class CustomJinja2PostFormatProcessor implements PostFormatProcessor {
     public TextRange processText(@NotNull PsiFile source,
                                   @NotNull TextRange rangeToReformat,
                                   @NotNull CodeStyleSettings settings) {
+        ConversionMetrics.POST_FORMAT.invoked();
         try {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("PostFormatProcessor: Processing text range " + rangeToReformat);
             }
 
+            // Stock delimiters everywhere: nothing to convert
+            if (!FileProfileResolver.mayConvert()) {
+                return rangeToReformat;
+            }
+
             // Check if this is a Jinja2 file
             Language fileLanguage = source.getLanguage();
-            if (!"Jinja2".equals(fileLanguage.getID()) && !fileLanguage.getID().contains("Jinja")) {
+            if (!JinjaLanguageFilter.isJinjaLanguage(fileLanguage)) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("PostFormatProcessor: Not a Jinja2 file (language: " + fileLanguage.getID() + "), skipping");
                 }
                 return rangeToReformat;
             }
 
+            if (ShadowCopyFormatter.isShadowCopy(source)) {
+                return rangeToReformat;
+            }
+
             Document document = PsiDocumentManager.getInstance(source.getProject()).getDocument(source);
             if (document == null) {
                 LOG.warn("PostFormatProcessor: Document is null for file: " + source.getName());
                 return rangeToReformat;
             }
 
-            return convertDelimiters(document, rangeToReformat, source);
+            // Same decision as the pre processor made for this file
+            DelimiterProfile profile = FileProfileResolver.takeFormatProfile(source, document);
+            if (profile.isStandard()) {
+                return rangeToReformat;
+            }
 
+            return convertDelimiters(document, rangeToReformat, source, profile);
+
+        } catch (ProcessCanceledException e) {
+            throw e;
         } catch (Exception e) {
             LOG.error("PostFormatProcessor: Failed to process text", e);
             return rangeToReformat; // Return original range on error
         }
     }
 
-    private TextRange convertDelimiters(Document document, TextRange range, PsiFile file) {
-        // Get custom delimiter settings
-        Jinja2DelimitersSettings delimSettings = Jinja2DelimitersSettings.getInstance();
-
-        String blockStart = delimSettings.getBlockStartString();
-        String blockEnd = delimSettings.getBlockEndString();
-        String variableStart = delimSettings.getVariableStartString();
-        String variableEnd = delimSettings.getVariableEndString();
-        String commentStart = delimSettings.getCommentStartString();
-        String commentEnd = delimSettings.getCommentEndString();
+    private TextRange convertDelimiters(Document document, TextRange range, PsiFile file, DelimiterProfile profile) {
+        long stamp = document.getModificationStamp();
+        long started = System.nanoTime();
+        ConversionEvents.PostConversion event = new ConversionEvents.PostConversion();
+        event.begin();
 
         if (LOG.isDebugEnabled()) {
-            LOG.debug("PostFormatProcessor: Using delimiters - block: " + blockStart + "/" + blockEnd +
-                     ", variable: " + variableStart + "/" + variableEnd +
-                     ", comment: " + commentStart + "/" + commentEnd);
+            LOG.debug("PostFormatProcessor: Using delimiters - " + profile);
         }
 
-        // Get the text in the range
-        String text = document.getText(range);
-
-        // Convert standard Jinja2 delimiters back to custom delimiters
-        String converted = text;
-
-        // Block delimiters with whitespace control
-        converted = replaceWithWhitespaceControl(converted, "{%", blockStart);
-        converted = replaceWithWhitespaceControl(converted, "%}", blockEnd);
+        // Revert only the sites converted by the pre processor; without them, scan the whole range
+        DelimiterEdits edits = ConvertedDelimiterSites.takeEdits(document, profile.fromStandard());
+        boolean restoringSites = edits != null;
+        if (edits == null) {
+            // Same text, range and profile as an earlier scan that found nothing to convert
+            ConversionEvents.CacheLookup lookupEvent = new ConversionEvents.CacheLookup();
+            lookupEvent.begin();
+            boolean unchanged = ConversionResultCache.lookup(document, ConversionResultCache.Direction.FROM_STANDARD,
+                                                             stamp, range, profile);
+            lookupEvent.end(file, range.getLength(), profile, ConversionResultCache.Direction.FROM_STANDARD, unchanged);
+            if (unchanged) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("PostFormatProcessor: Nothing to convert since last call, returning " + range);
+                }
+                ConversionMetrics.POST_FORMAT.cacheHit();
+                return range;
+            }
 
-        // Variable delimiters with whitespace control
-        converted = replaceWithWhitespaceControl(converted, "{{", variableStart);
-        converted = replaceWithWhitespaceControl(converted, "}}", variableEnd);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("PostFormatProcessor: No converted sites recorded, scanning range " + range);
+            }
 
-        // Comment delimiters with whitespace control
-        converted = replaceWithWhitespaceControl(converted, "{#", commentStart);
-        converted = replaceWithWhitespaceControl(converted, "#}", commentEnd);
+            // Convert standard Jinja2 delimiters (including whitespace control variants) back to custom delimiters.
+            // Deliberately not cancelable: stopping here would leave the file with standard delimiters.
+            // Standard delimiters cut by the range edges are converted whole; raw blocks, comments
+            // and string literals are left alone.
+            CharSequence text = document.getImmutableCharSequence();
+            DelimiterTranslator translator = profile.fromStandard();
+            int scanStart = translator.expandStart(text, range.getStartOffset());
+            int scanEnd = translator.expandEnd(text, range.getEndOffset());
+            edits = ParallelDelimiterScan.collectEdits(translator, text, scanStart, scanEnd, () -> { },
+                                                       ProtectedRegionIndex.forStandardText(document, profile));
+            ConversionMetrics.POST_FORMAT.scanned(scanEnd - scanStart);
+        }
 
-        // If text changed, update the document
-        if (!text.equals(converted)) {
+        // If any delimiter changed, update only those delimiters in the document
+        if (!edits.isEmpty()) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("PostFormatProcessor: Converting standard delimiters back to custom in range " + range);
+                LOG.debug("PostFormatProcessor: Converting standard delimiters back to custom in range " + range + " (" + edits.size() + " edits)");
             }
 
             PsiDocumentManager psiDocumentManager = PsiDocumentManager.getInstance(file.getProject());
 
-            document.replaceString(range.getStartOffset(), range.getEndOffset(), converted);
+            DelimiterEditApplier.apply(document, edits);
 
             // Commit the document changes to PSI
+            long commitStarted = System.nanoTime();
+            ConversionEvents.DocumentCommit commitEvent = new ConversionEvents.DocumentCommit();
+            commitEvent.begin();
             psiDocumentManager.commitDocument(document);
+            commitEvent.end(file, range.getLength(), edits.size(), profile);
+            ConversionMetrics.POST_FORMAT.committed(System.nanoTime() - commitStarted);
+            if (restoringSites) {
+                ConvertedDelimiterSites.markRestored(document);
+            }
 
-            // Return adjusted range if length changed
-            int lengthDiff = converted.length() - text.length();
-            TextRange newRange = new TextRange(range.getStartOffset(), range.getEndOffset() + lengthDiff);
+            // Return the range adjusted for the length change, covering every converted delimiter
+            int newStart = Math.min(range.getStartOffset(), edits.getStart(0));
+            int newEnd = Math.max(range.getEndOffset(), edits.getEnd(edits.size() - 1));
+            TextRange newRange = new TextRange(newStart, newEnd + edits.getLengthDelta());
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("PostFormatProcessor: Conversion complete, new range: " + newRange);
             }
 
+            ConversionMetrics.POST_FORMAT.converted(file.getName(), document.getTextLength(), edits.size(),
+                                                    System.nanoTime() - started);
+            event.end(file, range.getLength(), edits.size(), profile);
             return newRange;
         } else {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("PostFormatProcessor: No conversion needed (using standard delimiters)");
             }
-        }
-
-        return range;
-    }
-
-    /**
-     * Replace standard delimiter with custom delimiter, preserving whitespace control characters.
-     *
-     * Examples:
-     * - "{%" → "[%"
-     * - "{%-" → "[%-"
-     * - "{%+" → "[%+"
-     * - "-%}" → "-%]"
-     * - "+%}" → "+%]"
-     */
-    private String replaceWithWhitespaceControl(String text, String standardDelim, String customDelim) {
-        if (customDelim.equals(standardDelim)) {
-            return text; // No conversion needed
-        }
-
-        String result = text;
+            if (restoringSites) {
+                ConvertedDelimiterSites.markRestored(document);
+            } else {
+                ConversionResultCache.store(document, ConversionResultCache.Direction.FROM_STANDARD, stamp, range, profile);
+            }
 
-        // For opening delimiters (e.g., "{%" → "[%")
-        if (standardDelim.equals("{%") || standardDelim.equals("{{") || standardDelim.equals("{#")) {
-            // Handle: {%-, {%+, {%
-            result = result.replace(standardDelim + "-", customDelim + "-");
-            result = result.replace(standardDelim + "+", customDelim + "+");
-            result = result.replace(standardDelim, customDelim);
-        }
-        // For closing delimiters (e.g., "%}" → "%]")
-        else if (standardDelim.equals("%}") || standardDelim.equals("}}") || standardDelim.equals("#}")) {
-            // Handle: -%}, +%}, %}
-            result = result.replace("-" + standardDelim, "-" + customDelim);
-            result = result.replace("+" + standardDelim, "+" + customDelim);
-            result = result.replace(standardDelim, customDelim);
+            ConversionMetrics.POST_FORMAT.converted(file.getName(), document.getTextLength(), 0, System.nanoTime() - started);
+            event.end(file, range.getLength(), 0, profile);
         }
 
-        return result;
+        return range;
     }
 }
@@ -4,11 +4,17 @@ import com.intellij.lang.ASTNode;
 import com.intellij.lang.Language;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.impl.source.codeStyle.PreFormatProcessor;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterTranslator;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.ParallelDelimiterScan;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.ProtectedRegions;
 import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2DelimitersSettings;
 import org.jetbrains.annotations.NotNull;
 
@@ -26,11 +32,25 @@ public class CustomJinja2PreFormatProcessor implements PreFormatProcessor {
     @NotNull
     @Override
     public TextRange process(@NotNull ASTNode element, @NotNull TextRange range) {
+        ConversionMetrics metrics = ConversionMetrics.PRE_FORMAT;
+        metrics.invoked();
+        Document document = null;
         try {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("PreFormatProcessor: Processing range " + range);
             }
 
+            // Stock delimiters everywhere: nothing to convert, skip before touching PSI
+            if (!FileProfileResolver.mayConvert()) {
+                return range;
+            }
+
+            // The root of a non-Jinja file: skip before walking to the PSI file
+            Boolean jinjaFile = JinjaLanguageFilter.isJinjaFileNode(element);
+            if (jinjaFile != null && !jinjaFile) {
+                return range;
+            }
+
             PsiElement psiElement = element.getPsi();
             if (psiElement == null) {
                 if (LOG.isDebugEnabled()) {
@@ -49,126 +69,160 @@ public class CustomJinja2PreFormatProcessor implements PreFormatProcessor {
 
             // Only process Jinja2 files
             Language fileLanguage = file.getLanguage();
-            if (!"Jinja2".equals(fileLanguage.getID()) && !fileLanguage.getID().contains("Jinja")) {
+            if (!JinjaLanguageFilter.isJinjaLanguage(fileLanguage)) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("PreFormatProcessor: Not a Jinja2 file (language: " + fileLanguage.getID() + "), skipping");
                 }
                 return range;
             }
 
+            // Copy made by the shadow formatter: already standard, and must stay so
+            if (ShadowCopyFormatter.isShadowCopy(file)) {
+                return range;
+            }
+
             if (LOG.isDebugEnabled()) {
                 LOG.debug("PreFormatProcessor: Processing Jinja2 file: " + file.getName());
             }
 
-            Document document = PsiDocumentManager.getInstance(file.getProject()).getDocument(file);
+            document = PsiDocumentManager.getInstance(file.getProject()).getDocument(file);
             if (document == null) {
                 LOG.warn("PreFormatProcessor: Document is null for file: " + file.getName());
                 return range;
             }
 
-            // Get custom delimiter settings
-            Jinja2DelimitersSettings settings = Jinja2DelimitersSettings.getInstance();
+            // Profile of the path rule matching the file, else the configured one; with
+            // auto-detection on, templates written in other delimiters are left alone. Pinned for
+            // the post processor, which only sees the converted text
+            DelimiterProfile profile = FileProfileResolver.resolveForFormat(file, document);
+            if (profile.isStandard()) {
+                return range;
+            }
 
-            String blockStart = settings.getBlockStartString();
-            String blockEnd = settings.getBlockEndString();
-            String variableStart = settings.getVariableStartString();
-            String variableEnd = settings.getVariableEndString();
-            String commentStart = settings.getCommentStartString();
-            String commentEnd = settings.getCommentEndString();
+            // Same text, range and profile as an earlier call that found nothing to convert
+            long stamp = document.getModificationStamp();
+            ConversionEvents.CacheLookup lookupEvent = new ConversionEvents.CacheLookup();
+            lookupEvent.begin();
+            boolean unchanged = ConversionResultCache.lookup(document, ConversionResultCache.Direction.TO_STANDARD,
+                                                             stamp, range, profile);
+            lookupEvent.end(file, range.getLength(), profile, ConversionResultCache.Direction.TO_STANDARD, unchanged);
+            if (unchanged) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("PreFormatProcessor: Nothing to convert since last call, returning " + range);
+                }
+                metrics.cacheHit();
+                // Nothing to revert: keeps the post processor from converting literal standard delimiters
+                ConvertedDelimiterSites.record(document, document.getImmutableCharSequence(), new DelimiterEdits(0));
+                return range;
+            }
+            long started = System.nanoTime();
+            ConversionEvents.PreConversion event = new ConversionEvents.PreConversion();
+            event.begin();
 
             if (LOG.isDebugEnabled()) {
-                LOG.debug("PreFormatProcessor: Using delimiters - block: " + blockStart + "/" + blockEnd +
-                         ", variable: " + variableStart + "/" + variableEnd +
-                         ", comment: " + commentStart + "/" + commentEnd);
+                LOG.debug("PreFormatProcessor: Using delimiters - " + profile);
             }
 
-            // Get the text in the range
-            String text = document.getText(range);
-
-            // Convert custom delimiters to standard Jinja2 delimiters
-            String converted = text;
+            // Scan the document text in place; only changed delimiters allocate
+            CharSequence text = document.getImmutableCharSequence();
 
-            // Block delimiters with whitespace control
-            converted = replaceWithWhitespaceControl(converted, blockStart, "{%");
-            converted = replaceWithWhitespaceControl(converted, blockEnd, "%}");
+            // Widen a selection just enough that delimiters cut by its edges are converted whole
+            DelimiterTranslator translator = profile.toStandard();
+            TextRange scanRange = new TextRange(translator.expandStart(text, range.getStartOffset()),
+                                                translator.expandEnd(text, range.getEndOffset()));
 
-            // Variable delimiters with whitespace control
-            converted = replaceWithWhitespaceControl(converted, variableStart, "{{");
-            converted = replaceWithWhitespaceControl(converted, variableEnd, "}}");
+            // Raw blocks, comments and string literals keep their delimiter-like text
+            ProtectedRegions protectedRegions = ProtectedRegionIndex.forCustomText(document, profile);
 
-            // Comment delimiters with whitespace control
-            converted = replaceWithWhitespaceControl(converted, commentStart, "{#");
-            converted = replaceWithWhitespaceControl(converted, commentEnd, "#}");
+            // Convert custom delimiters (including whitespace control variants) to standard Jinja2 delimiters.
+            // Bulk formatting may have scanned the file already in a background read action, and
+            // open files may be tracked incrementally while they are edited.
+            DelimiterEdits edits = PrecomputedDelimiterEdits.take(document, scanRange, profile);
+            if (edits == null && !protectedRegions.intersects(scanRange.getStartOffset(), scanRange.getEndOffset())) {
+                // The tracked edits ignore protected regions, so they only apply to ranges without any
+                edits = DelimiterEditsShadow.lookup(document, scanRange, profile);
+            }
+            if (edits == null) {
+                // Nothing has been changed yet, so the scan can give up when the format is canceled.
+                // Very large files are scanned in parallel segments.
+                edits = ParallelDelimiterScan.collectEdits(translator, text, scanRange.getStartOffset(),
+                                                           scanRange.getEndOffset(),
+                                                           ProgressCancellation.ofCurrentThread(), protectedRegions);
+                metrics.scanned(scanRange.getLength());
+                if (protectedRegions.isEmpty()) {
+                    DelimiterEditsShadow.seed(document, stamp, scanRange, profile, edits);
+                }
+            }
 
-            // If text changed, update the document
-            if (!text.equals(converted)) {
+            // If any delimiter changed, update only those delimiters in the document
+            if (!edits.isEmpty()) {
                 if (LOG.isDebugEnabled()) {
-                    LOG.debug("PreFormatProcessor: Converting custom delimiters to standard in range " + range);
+                    LOG.debug("PreFormatProcessor: Converting custom delimiters to standard in range " + range + " (" + edits.size() + " edits)");
+                }
+
+                // Whole-file format: format a converted copy and write back only whitespace
+                if (Jinja2DelimitersSettings.getInstance().isShadowFormatting() &&
+                    range.getStartOffset() == 0 && range.getEndOffset() == text.length()) {
+                    TextRange shadowRange = ShadowCopyFormatter.format(file, document, text, edits);
+                    if (shadowRange != null) {
+                        metrics.converted(file.getName(), text.length(), edits.size(), System.nanoTime() - started);
+                        event.end(file, range.getLength(), edits.size(), profile);
+                        return shadowRange;
+                    }
                 }
 
                 PsiDocumentManager psiDocumentManager = PsiDocumentManager.getInstance(file.getProject());
 
-                document.replaceString(range.getStartOffset(), range.getEndOffset(), converted);
+                DelimiterEditApplier.apply(document, edits);
+
+                // Remember the rewritten sites so the post processor only reverts those
+                ConvertedDelimiterSites.record(document, text, edits);
 
                 // Commit the document changes to PSI
+                long commitStarted = System.nanoTime();
+                ConversionEvents.DocumentCommit commitEvent = new ConversionEvents.DocumentCommit();
+                commitEvent.begin();
                 psiDocumentManager.commitDocument(document);
+                commitEvent.end(file, range.getLength(), edits.size(), profile);
+                metrics.committed(System.nanoTime() - commitStarted);
 
-                // Return adjusted range if length changed
-                int lengthDiff = converted.length() - text.length();
-                TextRange newRange = new TextRange(range.getStartOffset(), range.getEndOffset() + lengthDiff);
+                // Return the range adjusted for the length change, grown to cover the converted
+                // delimiters so the post processor restores all of them
+                int newStart = Math.min(range.getStartOffset(), edits.getStart(0));
+                int newEnd = Math.max(range.getEndOffset(), edits.getEnd(edits.size() - 1));
+                TextRange newRange = new TextRange(newStart, newEnd + edits.getLengthDelta());
 
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("PreFormatProcessor: Conversion complete, new range: " + newRange);
                 }
 
+                metrics.converted(file.getName(), text.length(), edits.size(), System.nanoTime() - started);
+                event.end(file, range.getLength(), edits.size(), profile);
                 return newRange;
             } else {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("PreFormatProcessor: No conversion needed (using standard delimiters)");
                 }
+
+                // Nothing to revert: keeps the post processor from converting literal standard delimiters
+                ConvertedDelimiterSites.record(document, text, edits);
+                ConversionResultCache.store(document, ConversionResultCache.Direction.TO_STANDARD, stamp, range, profile);
+                metrics.converted(file.getName(), text.length(), 0, System.nanoTime() - started);
+                event.end(file, range.getLength(), 0, profile);
             }
 
             return range;
 
+        } catch (ProcessCanceledException e) {
+            // The format stops here, so no post processor takes the pin
+            if (document != null) {
+                FileProfileResolver.clearFormatProfile(document);
+            }
+            throw e;
         } catch (Exception e) {
             // Log error but don't crash the formatter
             LOG.error("PreFormatProcessor: Failed to convert custom delimiters", e);
             return range; // Return original range on error
         }
     }
-
-    /**
-     * Replace custom delimiter with standard delimiter, preserving whitespace control characters.
-     *
-     * Examples:
-     * - "[%" → "{%"
-     * - "[%-" → "{%-"
-     * - "[%+" → "{%+"
-     * - "-%]" → "-%}"
-     * - "+%]" → "+%}"
-     */
-    private String replaceWithWhitespaceControl(String text, String customDelim, String standardDelim) {
-        if (customDelim.equals(standardDelim)) {
-            return text; // No conversion needed
-        }
-
-        String result = text;
-
-        // For opening delimiters (e.g., "[%" → "{%")
-        if (standardDelim.equals("{%") || standardDelim.equals("{{") || standardDelim.equals("{#")) {
-            // Handle: [%-, [%+, [%
-            result = result.replace(customDelim + "-", standardDelim + "-");
-            result = result.replace(customDelim + "+", standardDelim + "+");
-            result = result.replace(customDelim, standardDelim);
-        }
-        // For closing delimiters (e.g., "%]" → "%}")
-        else if (standardDelim.equals("%}") || standardDelim.equals("}}") || standardDelim.equals("#}")) {
-            // Handle: -%], +%], %]
-            result = result.replace("-" + customDelim, "-" + standardDelim);
-            result = result.replace("+" + customDelim, "+" + standardDelim);
-            result = result.replace(customDelim, standardDelim);
-        }
-
-        return result;
-    }
 }
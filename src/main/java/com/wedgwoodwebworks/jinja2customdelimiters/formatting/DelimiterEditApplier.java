@@ -0,0 +1,43 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.util.DocumentUtil;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Applies delimiter edits to a document in place.
+ *
+ * Only the changed delimiters are replaced, so caret, folding and range markers elsewhere in the
+ * document survive and the following commit reparses the touched delimiters instead of the range.
+ */
+final class DelimiterEditApplier {
+
+    // Above this many edits, batch them in bulk mode so listeners are notified once
+    private static final int BULK_EDIT_THRESHOLD = 100;
+
+    private DelimiterEditApplier() {
+    }
+
+    /**
+     * @param edits edits with document offsets, collected from the current document text
+     */
+    static void apply(@NotNull Document document, @NotNull DelimiterEdits edits) {
+        if (edits.isEmpty()) {
+            return;
+        }
+
+        Runnable task = () -> {
+            // Apply back to front so earlier offsets stay valid
+            for (int i = edits.size() - 1; i >= 0; i--) {
+                document.replaceString(edits.getStart(i), edits.getEnd(i), edits.getReplacement(i));
+            }
+        };
+
+        if (edits.size() > BULK_EDIT_THRESHOLD) {
+            DocumentUtil.executeInBulk(document, task);
+        } else {
+            task.run();
+        }
+    }
+}
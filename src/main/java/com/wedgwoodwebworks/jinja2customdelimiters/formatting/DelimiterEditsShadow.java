@@ -0,0 +1,132 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.IncrementalDelimiterEdits;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Standard-delimiter shadow of an open document: the edits converting its whole text to standard
+ * delimiters, kept up to date from document events.
+ *
+ * Events only mark the changed text dirty; the dirty parts are rescanned when
+ * {@link CustomJinja2PreFormatProcessor} asks for the edits, so frequent formatting (format on
+ * save, reformat on paste) looks the conversion up instead of scanning the file. The shadow is
+ * attached while the document is open in an editor and tracking is enabled in the settings.
+ *
+ * The conversion and restore edits of a format pass only mark the converted sites dirty, so the
+ * next lookup rescans those sites rather than the file. Documents change under the write lock,
+ * but lookups also come from background formatting (bulk and directory reformats), so the state
+ * is guarded by the shadow's monitor. A lookup made after the text changed but before the change
+ * event arrived sees a newer document stamp than the tracked one and falls back to scanning.
+ */
+final class DelimiterEditsShadow implements DocumentListener {
+
+    private static final Key<DelimiterEditsShadow> KEY = Key.create("Jinja2CustomDelimiters.EditsShadow");
+
+    // Beyond this many scattered changes a full scan is cheaper than merging them
+    private static final int MAX_DIRTY_INTERVALS = 10_000;
+
+    private final Disposable disposable = Disposer.newDisposable("Jinja2 delimiter shadow");
+    // Null until seeded by the first scan of the whole document; guarded by this
+    private DelimiterProfile profile;
+    private IncrementalDelimiterEdits edits;
+    // Document stamp the tracked edits are up to date with
+    private long stamp;
+
+    private DelimiterEditsShadow() {
+    }
+
+    static void attach(@NotNull Document document) {
+        if (document.getUserData(KEY) != null) {
+            return;
+        }
+        DelimiterEditsShadow shadow = new DelimiterEditsShadow();
+        document.putUserData(KEY, shadow);
+        document.addDocumentListener(shadow, shadow.disposable);
+    }
+
+    static void detach(@NotNull Document document) {
+        DelimiterEditsShadow shadow = document.getUserData(KEY);
+        if (shadow != null) {
+            document.putUserData(KEY, null);
+            Disposer.dispose(shadow.disposable);
+        }
+    }
+
+    /**
+     * Drops the tracked edits; the next whole-document scan seeds them again.
+     */
+    static void reset(@NotNull Document document) {
+        DelimiterEditsShadow shadow = document.getUserData(KEY);
+        if (shadow != null) {
+            synchronized (shadow) {
+                shadow.profile = null;
+                shadow.edits = null;
+            }
+        }
+    }
+
+    /**
+     * @return the edits converting {@code range} to standard delimiters under {@code profile}, or
+     *         null if the document has no seeded shadow for this profile or a delimiter may span
+     *         an end of the range
+     */
+    @Nullable
+    static DelimiterEdits lookup(@NotNull Document document, @NotNull TextRange range, @NotNull DelimiterProfile profile) {
+        DelimiterEditsShadow shadow = document.getUserData(KEY);
+        if (shadow == null) {
+            return null;
+        }
+        synchronized (shadow) {
+            if (shadow.edits == null || !profile.equals(shadow.profile) ||
+                shadow.stamp != document.getModificationStamp()) {
+                return null;
+            }
+            return shadow.edits.getEdits(document.getImmutableCharSequence(), range.getStartOffset(), range.getEndOffset());
+        }
+    }
+
+    /**
+     * Seeds the shadow with edits just collected from the text at {@code stamp}. Only
+     * whole-document edits can be tracked, and edits of an outdated text are dropped.
+     */
+    static void seed(@NotNull Document document, long stamp, @NotNull TextRange range,
+                     @NotNull DelimiterProfile profile, @NotNull DelimiterEdits edits) {
+        DelimiterEditsShadow shadow = document.getUserData(KEY);
+        if (shadow == null || range.getStartOffset() != 0) {
+            return;
+        }
+        synchronized (shadow) {
+            if (document.getModificationStamp() != stamp || range.getEndOffset() != document.getTextLength()) {
+                return;
+            }
+            if (shadow.edits == null || !profile.equals(shadow.profile)) {
+                shadow.profile = profile;
+                shadow.edits = new IncrementalDelimiterEdits(profile.toStandard(), edits);
+                shadow.stamp = stamp;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void documentChanged(@NotNull DocumentEvent event) {
+        if (edits == null) {
+            return;
+        }
+        edits.textChanged(event.getOffset(), event.getOldLength(), event.getNewLength());
+        stamp = event.getDocument().getModificationStamp();
+        if (edits.getDirtyIntervalCount() > MAX_DIRTY_INTERVALS) {
+            profile = null;
+            edits = null;
+        }
+    }
+}
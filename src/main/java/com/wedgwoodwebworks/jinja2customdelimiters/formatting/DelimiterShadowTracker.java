@@ -0,0 +1,69 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.EditorFactoryEvent;
+import com.intellij.openapi.editor.event.EditorFactoryListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2DelimitersSettings;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Attaches a {@link DelimiterEditsShadow} to every Jinja2 document open in an editor while
+ * incremental tracking is enabled, and detaches it when the last editor of the document closes or
+ * tracking is turned off. Changed settings drop the tracked edits of all open documents.
+ */
+public class DelimiterShadowTracker implements EditorFactoryListener, Jinja2DelimitersSettings.Listener {
+
+    @Override
+    public void editorCreated(@NotNull EditorFactoryEvent event) {
+        Editor editor = event.getEditor();
+        if (isEnabled() && isJinjaDocument(editor)) {
+            DelimiterEditsShadow.attach(editor.getDocument());
+        }
+    }
+
+    @Override
+    public void editorReleased(@NotNull EditorFactoryEvent event) {
+        Editor released = event.getEditor();
+        Document document = released.getDocument();
+        for (Editor editor : EditorFactory.getInstance().getEditors(document)) {
+            if (editor != released) {
+                return;
+            }
+        }
+        DelimiterEditsShadow.detach(document);
+    }
+
+    @Override
+    public void settingsChanged() {
+        boolean enabled = isEnabled();
+        for (Editor editor : EditorFactory.getInstance().getAllEditors()) {
+            Document document = editor.getDocument();
+            if (enabled && isJinjaDocument(editor)) {
+                DelimiterEditsShadow.attach(document);
+                // Tracked under the old delimiters; seeded again by the next format
+                DelimiterEditsShadow.reset(document);
+            } else {
+                DelimiterEditsShadow.detach(document);
+            }
+        }
+    }
+
+    private static boolean isEnabled() {
+        Jinja2DelimitersSettings settings = Jinja2DelimitersSettings.getInstance();
+        return settings.isIncrementalTracking() && !settings.getProfile().isStandard();
+    }
+
+    private static boolean isJinjaDocument(@NotNull Editor editor) {
+        Project project = editor.getProject();
+        if (project == null || project.isDisposed()) {
+            return false;
+        }
+        PsiFile file = PsiDocumentManager.getInstance(project).getPsiFile(editor.getDocument());
+        return file != null && JinjaLanguageFilter.isJinjaLanguage(file.getLanguage());
+    }
+}
@@ -0,0 +1,169 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfileDetector;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfileRules;
+import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2DelimitersSettings;
+import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2ProjectDelimitersSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The delimiter profile to format a file with: the one of the first project path rule matching
+ * the file, else the application profile; with auto-detection on, {@link DelimiterProfileDetector}
+ * may then decide from the start of the file to leave it alone.
+ *
+ * Detection only chooses between that profile and {@link DelimiterProfile#STANDARD}. A template
+ * in LaTeX-style delimiters ({@code \BLOCK{}}, {@code \VAR{}}) resolves to STANDARD and is left
+ * unconverted rather than formatted with a LaTeX profile: one custom profile is configured per
+ * file, and LaTeX-style tags all close with {@code }}, which the round trip cannot tell apart.
+ *
+ * The matched rule is kept on the virtual file and reused until the rules change or a file of
+ * the project is moved or renamed. The detection is kept on the document and reused until its
+ * text changes, so editing a template in memory is seen by the next format. Within one format the
+ * pre processor pins its decision with {@link #resolveForFormat}, and the post processor takes it
+ * with {@link #takeFormatProfile} instead of detecting a standard template in the converted text.
+ * Taking the pin removes it, so a later format never reads a decision made before the settings,
+ * the path rules or the text changed.
+ */
+public final class FileProfileResolver {
+
+    private static final Key<RuleEntry> RULE_PROFILE = Key.create("Jinja2CustomDelimiters.RuleProfile");
+    private static final Key<Entry> DETECTED_PROFILE = Key.create("Jinja2CustomDelimiters.DetectedProfile");
+    private static final Key<DelimiterProfile> FORMAT_PROFILE = Key.create("Jinja2CustomDelimiters.FormatProfile");
+
+    private FileProfileResolver() {
+    }
+
+    /**
+     * @return true if some file may be formatted with custom delimiters, false if every file uses
+     *         the stock delimiters and the format processors can return before touching PSI
+     */
+    public static boolean mayConvert() {
+        return !Jinja2DelimitersSettings.getInstance().getProfile().isStandard() ||
+               Jinja2ProjectDelimitersSettings.anyProjectHasRules();
+    }
+
+    /**
+     * @return the profile of the path rule matching {@code file}, else the application profile;
+     *         without a document to sample, auto-detection does not apply
+     */
+    @NotNull
+    public static DelimiterProfile resolve(@Nullable Project project, @Nullable VirtualFile file) {
+        DelimiterProfile applicationProfile = Jinja2DelimitersSettings.getInstance().getProfile();
+        if (project == null || file == null || project.isDisposed()) {
+            return applicationProfile;
+        }
+        return configuredProfile(project, file, applicationProfile);
+    }
+
+    @NotNull
+    public static DelimiterProfile resolve(@NotNull PsiFile file, @NotNull Document document) {
+        Jinja2DelimitersSettings settings = Jinja2DelimitersSettings.getInstance();
+        VirtualFile virtualFile = file.getViewProvider().getVirtualFile();
+        DelimiterProfile configured = configuredProfile(file.getProject(), virtualFile, settings.getProfile());
+        if (configured.isStandard() || !settings.isAutoDetectProfile()) {
+            return configured;
+        }
+
+        long stamp = document.getModificationStamp();
+        Entry entry = document.getUserData(DETECTED_PROFILE);
+        if (entry != null && entry.stamp == stamp && entry.configured == configured) {
+            return entry.detected;
+        }
+
+        DelimiterProfile detected = DelimiterProfileDetector.detect(document.getImmutableCharSequence(), configured);
+        // Entries are immutable; a racing reader at the same stamp detects the same profile
+        document.putUserData(DETECTED_PROFILE, new Entry(stamp, configured, detected));
+        return detected;
+    }
+
+    /**
+     * Resolves the profile for the pre-format pass and pins it on the document for the post-format
+     * pass of the same format, which sees the text only after it was converted.
+     */
+    @NotNull
+    public static DelimiterProfile resolveForFormat(@NotNull PsiFile file, @NotNull Document document) {
+        DelimiterProfile profile = resolve(file, document);
+        document.putUserData(FORMAT_PROFILE, profile);
+        return profile;
+    }
+
+    /**
+     * Removes the profile pinned by the pre-format pass of the current format.
+     *
+     * @return the pinned profile, or the resolved profile if no pre-format pass pinned one; after
+     *         the first post pass has restored the custom delimiters, resolving sees them again
+     */
+    @NotNull
+    public static DelimiterProfile takeFormatProfile(@NotNull PsiFile file, @NotNull Document document) {
+        DelimiterProfile pinned = document.getUserData(FORMAT_PROFILE);
+        if (pinned == null) {
+            return resolve(file, document);
+        }
+        document.putUserData(FORMAT_PROFILE, null);
+        return pinned;
+    }
+
+    /**
+     * Drops the pin of a pre-format pass whose format will not reach the post-format pass.
+     */
+    public static void clearFormatProfile(@NotNull Document document) {
+        document.putUserData(FORMAT_PROFILE, null);
+    }
+
+    private static DelimiterProfile configuredProfile(Project project, VirtualFile virtualFile,
+                                                      DelimiterProfile applicationProfile) {
+        Jinja2ProjectDelimitersSettings projectSettings = Jinja2ProjectDelimitersSettings.getInstance(project);
+        DelimiterProfileRules rules = projectSettings.getCompiledRules();
+        if (rules.isEmpty()) {
+            return applicationProfile;
+        }
+
+        long pathStamp = projectSettings.getPathStamp();
+        RuleEntry entry = virtualFile.getUserData(RULE_PROFILE);
+        if (entry != null && entry.rules == rules && entry.pathStamp == pathStamp &&
+            entry.applicationProfile == applicationProfile) {
+            return entry.profile;
+        }
+
+        String path = projectSettings.getRelativePath(virtualFile);
+        DelimiterProfile matched = path != null ? rules.find(path) : null;
+        DelimiterProfile profile = matched != null ? matched : applicationProfile;
+        virtualFile.putUserData(RULE_PROFILE, new RuleEntry(rules, pathStamp, applicationProfile, profile));
+        return profile;
+    }
+
+    private static final class RuleEntry {
+        final DelimiterProfileRules rules;
+        final long pathStamp;
+        final DelimiterProfile applicationProfile;
+        final DelimiterProfile profile;
+
+        RuleEntry(DelimiterProfileRules rules, long pathStamp, DelimiterProfile applicationProfile,
+                  DelimiterProfile profile) {
+            this.rules = rules;
+            this.pathStamp = pathStamp;
+            this.applicationProfile = applicationProfile;
+            this.profile = profile;
+        }
+    }
+
+    private static final class Entry {
+        final long stamp;
+        // Settings and rules rebuild their profile objects on every change, so identity is enough
+        final DelimiterProfile configured;
+        final DelimiterProfile detected;
+
+        Entry(long stamp, DelimiterProfile configured, DelimiterProfile detected) {
+            this.stamp = stamp;
+            this.configured = configured;
+            this.detected = detected;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.Language;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.IFileElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decides whether a language is a Jinja2 template language.
+ *
+ * The format processors run for every file the IDE formats. The decision is kept on the
+ * {@link Language} object itself, so after the first file of a language it costs one user data
+ * read instead of string comparisons on the language ID, and for a file node it is made before
+ * walking to the PSI file at all.
+ */
+public final class JinjaLanguageFilter {
+
+    private static final Key<Boolean> IS_JINJA = Key.create("Jinja2CustomDelimiters.IsJinja");
+
+    private JinjaLanguageFilter() {
+    }
+
+    public static boolean isJinjaLanguage(@NotNull Language language) {
+        Boolean decision = language.getUserData(IS_JINJA);
+        if (decision == null) {
+            decision = isJinjaLanguageId(language.getID());
+            // Racing writers store the same decision
+            language.putUserData(IS_JINJA, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * @return the decision for the file {@code node} is the root of, or null if {@code node} is not
+     *         a file node and only its containing file can tell
+     */
+    @Nullable
+    public static Boolean isJinjaFileNode(@NotNull ASTNode node) {
+        IElementType type = node.getElementType();
+        // A file node has the element type of its file's language
+        return type instanceof IFileElementType ? isJinjaLanguage(type.getLanguage()) : null;
+    }
+
+    public static boolean isJinjaLanguageId(@NotNull String languageId) {
+        return languageId.contains("Jinja");
+    }
+}
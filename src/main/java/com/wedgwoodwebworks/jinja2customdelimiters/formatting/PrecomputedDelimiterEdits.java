@@ -0,0 +1,70 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.ParallelDelimiterScan;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Pre-format edits for a whole document, scanned ahead of time in a background read action.
+ *
+ * Bulk formatting scans the next files while earlier ones are being formatted, so the write
+ * action of {@link CustomJinja2PreFormatProcessor} only applies edits. The edits are used once and
+ * only if the document, the range and the profile are unchanged; otherwise the processor scans.
+ */
+public final class PrecomputedDelimiterEdits {
+
+    private static final Key<PrecomputedDelimiterEdits> KEY = Key.create("Jinja2CustomDelimiters.PrecomputedEdits");
+
+    private final long stamp;
+    private final DelimiterProfile profile;
+    private final DelimiterEdits edits;
+
+    private PrecomputedDelimiterEdits(long stamp, DelimiterProfile profile, DelimiterEdits edits) {
+        this.stamp = stamp;
+        this.profile = profile;
+        this.edits = edits;
+    }
+
+    /**
+     * Scans the whole document, skipping its protected regions, and attaches the edits to it.
+     * Call in a read action; the scan checks for cancellation of the current progress.
+     */
+    public static void precompute(@NotNull Document document, @NotNull DelimiterProfile profile) {
+        if (profile.isStandard()) {
+            return;
+        }
+        CharSequence text = document.getImmutableCharSequence();
+        long stamp = document.getModificationStamp();
+        DelimiterEdits edits = ParallelDelimiterScan.collectEdits(profile.toStandard(), text, 0, text.length(),
+                                                                  ProgressCancellation.ofCurrentThread(),
+                                                                  ProtectedRegionIndex.forCustomText(document, profile));
+        document.putUserData(KEY, new PrecomputedDelimiterEdits(stamp, profile, edits));
+    }
+
+    /**
+     * Removes the precomputed edits from the document.
+     *
+     * @return the edits if they were computed for the current text, this profile and a range
+     *         covering the whole document, otherwise null
+     */
+    @Nullable
+    static DelimiterEdits take(@NotNull Document document, @NotNull TextRange range, @NotNull DelimiterProfile profile) {
+        PrecomputedDelimiterEdits precomputed = document.getUserData(KEY);
+        if (precomputed == null) {
+            return null;
+        }
+        document.putUserData(KEY, null);
+
+        if (precomputed.stamp != document.getModificationStamp() ||
+            range.getStartOffset() != 0 || range.getEndOffset() != document.getTextLength() ||
+            !precomputed.profile.equals(profile)) {
+            return null;
+        }
+        return precomputed.edits;
+    }
+}
@@ -0,0 +1,24 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Cancellation checks for scans that may run on fork-join threads, where
+ * {@link ProgressManager#checkCanceled()} does not see the progress of the thread that started them.
+ */
+final class ProgressCancellation {
+
+    private ProgressCancellation() {
+    }
+
+    /**
+     * @return a check throwing when the progress of the calling thread is canceled, from any thread
+     */
+    @NotNull
+    static Runnable ofCurrentThread() {
+        ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+        return indicator != null ? indicator::checkCanceled : ProgressManager::checkCanceled;
+    }
+}
@@ -0,0 +1,69 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.Key;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.ProtectedRegions;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Protected regions (raw blocks, comments, string literals) of a document, found once per
+ * modification stamp and shared by the background precompute and both format processors.
+ *
+ * One entry is kept per direction: the pre processor reads the regions of the custom-delimiter
+ * text, the post processor those of the formatted standard-delimiter text. Formatting a selection
+ * parses the document once per stamp like a whole-file format, so both find the same regions; the
+ * scan of the selection then reaches the regions overlapping it by binary search.
+ */
+final class ProtectedRegionIndex {
+
+    private static final Key<Entry> CUSTOM_KEY = Key.create("Jinja2CustomDelimiters.ProtectedRegions.Custom");
+    private static final Key<Entry> STANDARD_KEY = Key.create("Jinja2CustomDelimiters.ProtectedRegions.Standard");
+
+    private ProtectedRegionIndex() {
+    }
+
+    /**
+     * @return the regions of the document, written with the profile's delimiters, that
+     *         conversion to standard delimiters must skip
+     */
+    @NotNull
+    static ProtectedRegions forCustomText(@NotNull Document document, @NotNull DelimiterProfile profile) {
+        return get(document, profile, CUSTOM_KEY, false);
+    }
+
+    /**
+     * @return the regions of the document, written with standard delimiters, that conversion
+     *         back to the profile's delimiters must skip
+     */
+    @NotNull
+    static ProtectedRegions forStandardText(@NotNull Document document, @NotNull DelimiterProfile profile) {
+        return get(document, profile, STANDARD_KEY, true);
+    }
+
+    private static ProtectedRegions get(Document document, DelimiterProfile profile, Key<Entry> key, boolean standard) {
+        long stamp = document.getModificationStamp();
+        Entry entry = document.getUserData(key);
+        if (entry != null && entry.stamp == stamp && entry.profile.equals(profile)) {
+            return entry.regions;
+        }
+
+        CharSequence text = document.getImmutableCharSequence();
+        ProtectedRegions regions = standard ? profile.findStandardProtectedRegions(text) : profile.findProtectedRegions(text);
+        // Entries are immutable; a racing reader at the same stamp computes the same regions
+        document.putUserData(key, new Entry(stamp, profile, regions));
+        return regions;
+    }
+
+    private static final class Entry {
+        final long stamp;
+        final DelimiterProfile profile;
+        final ProtectedRegions regions;
+
+        Entry(long stamp, DelimiterProfile profile, ProtectedRegions regions) {
+            this.stamp = stamp;
+            this.profile = profile;
+            this.regions = regions;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.codeStyle.CodeStyleManager;
+import com.intellij.testFramework.LightVirtualFile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.WhitespaceChangeMapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Formats a whole custom-delimiter file on an in-memory copy with standard delimiters and writes
+ * back only the whitespace the formatter changed.
+ *
+ * The regular round trip rewrites the user's document twice, once in each format processor, and
+ * commits after each rewrite, so the file is reparsed twice. Here the conversion happens in a
+ * {@link LightVirtualFile} that is never committed to the project, the Jinja2 formatter runs on
+ * it, and {@link WhitespaceChangeMapper} turns its changes into edits on the original text: one
+ * document mutation and one reparse, with the custom delimiters never leaving the document.
+ *
+ * Experimental and off by default ({@code shadowFormatting} in the settings): the copy is
+ * reformatted from inside the outer format, and the outer formatter is handed an empty range so
+ * it leaves the already formatted document alone. {@code ShadowCopyFormatterTest} checks the
+ * whole pre, shadow and post sequence against the in-place round trip.
+ */
+final class ShadowCopyFormatter {
+
+    private static final Logger LOG = Logger.getInstance(ShadowCopyFormatter.class);
+
+    private static final Key<Boolean> SHADOW_COPY = Key.create("Jinja2CustomDelimiters.ShadowCopy");
+
+    // Set while this thread formats a copy, so nothing formatted from inside it starts another one
+    private static final ThreadLocal<Boolean> FORMATTING_COPY = new ThreadLocal<>();
+
+    private ShadowCopyFormatter() {
+    }
+
+    /**
+     * @return true for the copies made by {@link #format}, which the format processors must leave alone
+     */
+    static boolean isShadowCopy(@NotNull PsiFile file) {
+        return file.getViewProvider().getVirtualFile().getUserData(SHADOW_COPY) != null;
+    }
+
+    /**
+     * Formats the whole document through a shadow copy and applies the whitespace changes.
+     *
+     * @param text  the current document text
+     * @param edits edits converting the whole of {@code text} to standard delimiters
+     * @return the empty range left for the real formatter, or null if the copy could not be
+     *         formatted, the formatter changed more than whitespace or a copy is already being
+     *         formatted on this thread; the document is then untouched
+     */
+    @Nullable
+    static TextRange format(@NotNull PsiFile file, @NotNull Document document, @NotNull CharSequence text,
+                            @NotNull DelimiterEdits edits) {
+        if (FORMATTING_COPY.get() != null) {
+            LOG.debug("ShadowCopyFormatter: Already formatting a copy, falling back");
+            return null;
+        }
+        Project project = file.getProject();
+        String standard = edits.applyTo(text);
+
+        String formatted;
+        FORMATTING_COPY.set(Boolean.TRUE);
+        try {
+            LightVirtualFile copyFile = new LightVirtualFile(file.getName(), file.getLanguage(), standard);
+            // Lets template data language mappings and code style settings resolve as for the original
+            copyFile.setOriginalFile(file.getViewProvider().getVirtualFile());
+            copyFile.putUserData(SHADOW_COPY, Boolean.TRUE);
+
+            PsiFile copy = PsiManager.getInstance(project).findFile(copyFile);
+            if (copy == null || !JinjaLanguageFilter.isJinjaLanguage(copy.getLanguage())) {
+                LOG.debug("ShadowCopyFormatter: Copy is not a Jinja2 file, falling back");
+                return null;
+            }
+
+            CodeStyleManager.getInstance(project).reformat(copy);
+            PsiDocumentManager documentManager = PsiDocumentManager.getInstance(project);
+            Document copyDocument = documentManager.getDocument(copy);
+            if (copyDocument != null) {
+                documentManager.doPostponedOperationsAndUnblockDocument(copyDocument);
+                formatted = copyDocument.getText();
+            } else {
+                formatted = copy.getText();
+            }
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            LOG.warn("ShadowCopyFormatter: Formatting the copy of " + file.getName() + " failed, falling back", e);
+            return null;
+        } finally {
+            FORMATTING_COPY.remove();
+        }
+
+        DelimiterEdits whitespace = WhitespaceChangeMapper.map(text, 0, text.length(), edits, standard, formatted);
+        if (whitespace == null) {
+            LOG.debug("ShadowCopyFormatter: Formatter changed more than whitespace, falling back");
+            return null;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("ShadowCopyFormatter: Applying " + whitespace.size() + " whitespace edits to " + file.getName());
+        }
+        DelimiterEditApplier.apply(document, whitespace);
+        // Nothing was converted in the document, so the post processor has nothing to restore
+        ConvertedDelimiterSites.record(document, text, new DelimiterEdits(0));
+        PsiDocumentManager.getInstance(project).commitDocument(document);
+        // Nothing left to format: the document already holds the formatted whitespace
+        return TextRange.from(0, 0);
+    }
+}
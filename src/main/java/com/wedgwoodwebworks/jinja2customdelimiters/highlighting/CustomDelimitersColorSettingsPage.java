@@ -0,0 +1,80 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.highlighting;
+
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.fileTypes.PlainSyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterFactory;
+import com.intellij.openapi.options.colors.AttributesDescriptor;
+import com.intellij.openapi.options.colors.ColorDescriptor;
+import com.intellij.openapi.options.colors.ColorSettingsPage;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.util.Map;
+
+/**
+ * Color scheme page for {@link CustomDelimitersHighlighterColors}, previewed with square-bracket
+ * delimiters.
+ */
+public class CustomDelimitersColorSettingsPage implements ColorSettingsPage {
+
+    private static final AttributesDescriptor[] DESCRIPTORS = {
+        new AttributesDescriptor("Block delimiters", CustomDelimitersHighlighterColors.BLOCK_DELIMITER),
+        new AttributesDescriptor("Variable delimiters", CustomDelimitersHighlighterColors.VARIABLE_DELIMITER),
+        new AttributesDescriptor("Comment delimiters", CustomDelimitersHighlighterColors.COMMENT_DELIMITER)
+    };
+
+    private static final DelimiterProfile DEMO_PROFILE =
+        new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", "");
+
+    @Nullable
+    @Override
+    public Icon getIcon() {
+        return null;
+    }
+
+    @NotNull
+    @Override
+    public SyntaxHighlighter getHighlighter() {
+        SyntaxHighlighterFactory original = CustomDelimitersSyntaxHighlighterFactory.findOriginalFactory();
+        if (original == null) {
+            return new PlainSyntaxHighlighter();
+        }
+        return new CustomDelimitersSyntaxHighlighter(original.getSyntaxHighlighter(null, null), () -> DEMO_PROFILE);
+    }
+
+    @NotNull
+    @Override
+    public String getDemoText() {
+        return "[# Delimiters as configured under Languages & Frameworks | Jinja2 Custom Delimiters #]\n" +
+               "<ul>\n" +
+               "[% for user in users %]\n" +
+               "    <li>[[ user.name | title ]]</li>\n" +
+               "[%- endfor %]\n" +
+               "</ul>\n";
+    }
+
+    @Nullable
+    @Override
+    public Map<String, TextAttributesKey> getAdditionalHighlightingTagToDescriptorMap() {
+        return null;
+    }
+
+    @Override
+    public AttributesDescriptor @NotNull [] getAttributeDescriptors() {
+        return DESCRIPTORS;
+    }
+
+    @Override
+    public ColorDescriptor @NotNull [] getColorDescriptors() {
+        return ColorDescriptor.EMPTY_ARRAY;
+    }
+
+    @NotNull
+    @Override
+    public String getDisplayName() {
+        return "Jinja2 Custom Delimiters";
+    }
+}
@@ -0,0 +1,22 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.highlighting;
+
+import com.intellij.openapi.editor.DefaultLanguageHighlighterColors;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+
+import static com.intellij.openapi.editor.colors.TextAttributesKey.createTextAttributesKey;
+
+/**
+ * Colours of custom delimiters, editable under Settings | Editor | Color Scheme | Jinja2 Custom Delimiters.
+ */
+public final class CustomDelimitersHighlighterColors {
+
+    public static final TextAttributesKey BLOCK_DELIMITER =
+        createTextAttributesKey("JINJA2_CUSTOM_BLOCK_DELIMITER", DefaultLanguageHighlighterColors.KEYWORD);
+    public static final TextAttributesKey VARIABLE_DELIMITER =
+        createTextAttributesKey("JINJA2_CUSTOM_VARIABLE_DELIMITER", DefaultLanguageHighlighterColors.KEYWORD);
+    public static final TextAttributesKey COMMENT_DELIMITER =
+        createTextAttributesKey("JINJA2_CUSTOM_COMMENT_DELIMITER", DefaultLanguageHighlighterColors.BLOCK_COMMENT);
+
+    private CustomDelimitersHighlighterColors() {
+    }
+}
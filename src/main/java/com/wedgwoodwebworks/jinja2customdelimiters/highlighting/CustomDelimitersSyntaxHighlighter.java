@@ -0,0 +1,59 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.highlighting;
+
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterBase;
+import com.intellij.psi.tree.IElementType;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.lexer.CustomDelimiterTokenTypes;
+import com.wedgwoodwebworks.jinja2customdelimiters.lexer.CustomDelimitersLexer;
+import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2DelimitersSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Supplier;
+
+/**
+ * Jinja2 syntax highlighter that understands custom delimiters by running the stock Jinja2
+ * highlighting lexer through {@link CustomDelimitersLexer}. Custom delimiters get the colours of
+ * {@link CustomDelimitersHighlighterColors}; all other tokens keep the Jinja2 colours.
+ */
+public class CustomDelimitersSyntaxHighlighter extends SyntaxHighlighterBase {
+
+    private static final TextAttributesKey[] BLOCK_DELIMITER_KEYS = pack(CustomDelimitersHighlighterColors.BLOCK_DELIMITER);
+    private static final TextAttributesKey[] VARIABLE_DELIMITER_KEYS = pack(CustomDelimitersHighlighterColors.VARIABLE_DELIMITER);
+    private static final TextAttributesKey[] COMMENT_DELIMITER_KEYS = pack(CustomDelimitersHighlighterColors.COMMENT_DELIMITER);
+
+    private final SyntaxHighlighter original;
+    private final Supplier<DelimiterProfile> profileSupplier;
+
+    public CustomDelimitersSyntaxHighlighter(@NotNull SyntaxHighlighter original) {
+        this(original, () -> Jinja2DelimitersSettings.getInstance().getProfile());
+    }
+
+    public CustomDelimitersSyntaxHighlighter(@NotNull SyntaxHighlighter original,
+                                             @NotNull Supplier<DelimiterProfile> profileSupplier) {
+        this.original = original;
+        this.profileSupplier = profileSupplier;
+    }
+
+    @NotNull
+    @Override
+    public Lexer getHighlightingLexer() {
+        return new CustomDelimitersLexer(original.getHighlightingLexer(), profileSupplier);
+    }
+
+    @Override
+    public TextAttributesKey @NotNull [] getTokenHighlights(IElementType tokenType) {
+        if (tokenType == CustomDelimiterTokenTypes.BLOCK_DELIMITER) {
+            return BLOCK_DELIMITER_KEYS;
+        }
+        if (tokenType == CustomDelimiterTokenTypes.VARIABLE_DELIMITER) {
+            return VARIABLE_DELIMITER_KEYS;
+        }
+        if (tokenType == CustomDelimiterTokenTypes.COMMENT_DELIMITER) {
+            return COMMENT_DELIMITER_KEYS;
+        }
+        return original.getTokenHighlights(tokenType);
+    }
+}
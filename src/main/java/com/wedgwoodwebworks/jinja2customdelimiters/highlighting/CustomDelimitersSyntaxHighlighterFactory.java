@@ -0,0 +1,52 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.highlighting;
+
+import com.intellij.lang.Language;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.PlainSyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterFactory;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.wedgwoodwebworks.jinja2customdelimiters.formatting.FileProfileResolver;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Registered ahead of the bundled Jinja2 highlighter factory; wraps the highlighter it provides
+ * so that templates written with custom delimiters are highlighted like standard ones, with the
+ * delimiters of the project path rule matching the file.
+ */
+public class CustomDelimitersSyntaxHighlighterFactory extends SyntaxHighlighterFactory {
+
+    private static final Logger LOG = Logger.getInstance(CustomDelimitersSyntaxHighlighterFactory.class);
+
+    private static final String JINJA2_LANGUAGE_ID = "Jinja2";
+
+    @NotNull
+    @Override
+    public SyntaxHighlighter getSyntaxHighlighter(@Nullable Project project, @Nullable VirtualFile virtualFile) {
+        SyntaxHighlighterFactory original = findOriginalFactory();
+        if (original == null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("SyntaxHighlighterFactory: No bundled Jinja2 highlighter found, using plain text");
+            }
+            return new PlainSyntaxHighlighter();
+        }
+        return new CustomDelimitersSyntaxHighlighter(original.getSyntaxHighlighter(project, virtualFile),
+                                                     () -> FileProfileResolver.resolve(project, virtualFile));
+    }
+
+    @Nullable
+    static SyntaxHighlighterFactory findOriginalFactory() {
+        Language language = Language.findLanguageByID(JINJA2_LANGUAGE_ID);
+        if (language == null) {
+            return null;
+        }
+        for (SyntaxHighlighterFactory factory : SyntaxHighlighterFactory.LANGUAGE_FACTORY.allForLanguage(language)) {
+            if (!(factory instanceof CustomDelimitersSyntaxHighlighterFactory)) {
+                return factory;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,167 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.index;
+
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.indexing.SingleEntryFileBasedIndexExtension;
+import com.intellij.util.indexing.SingleEntryIndexer;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterUsage;
+import com.wedgwoodwebworks.jinja2customdelimiters.formatting.FileProfileResolver;
+import com.wedgwoodwebworks.jinja2customdelimiters.formatting.JinjaLanguageFilter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Per-file {@link DelimiterUsage} under the delimiters of each file, kept up to date by the
+ * platform indexer, so questions like "which templates still use standard delimiters" are
+ * answered from the index instead of reading every file.
+ *
+ * Only files with a template extension or a Jinja2 file type are indexed. A file is counted
+ * against the delimiters {@link FileProfileResolver#resolve(Project, VirtualFile)} gives it, the
+ * project path rule matching it or else the application delimiters; per-document auto-detection
+ * does not apply. The identity of those delimiters is stored next to the counts, so the index
+ * version stays fixed when the delimiters or path rules change: an entry counted against other
+ * delimiters is recounted from the file when read, and the file is queued for reindexing.
+ */
+public final class DelimiterUsageIndex extends SingleEntryFileBasedIndexExtension<DelimiterUsageIndex.Entry> {
+
+    public static final ID<Integer, Entry> NAME = ID.create("jinja2customdelimiters.DelimiterUsage");
+
+    private static final int VERSION = 2;
+
+    private static final Set<String> TEMPLATE_EXTENSIONS = Set.of("j2", "jinja", "jinja2", "tmpl", "tpl", "sls");
+
+    @NotNull
+    @Override
+    public ID<Integer, Entry> getName() {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public SingleEntryIndexer<Entry> getIndexer() {
+        return new SingleEntryIndexer<>(false) {
+            @NotNull
+            @Override
+            protected Entry computeValue(@NotNull FileContent inputData) {
+                // Files without delimiters are stored too, so a later change of their delimiters is noticed
+                DelimiterProfile profile = FileProfileResolver.resolve(inputData.getProject(), inputData.getFile());
+                return new Entry(profile.hashCode(), DelimiterUsage.count(inputData.getContentAsText(), profile));
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public DataExternalizer<Entry> getValueExternalizer() {
+        return new DataExternalizer<>() {
+            @Override
+            public void save(@NotNull DataOutput out, Entry entry) throws IOException {
+                out.writeInt(entry.profileHash);
+                DataInputOutputUtil.writeINT(out, entry.usage.getCustomCount());
+                DataInputOutputUtil.writeINT(out, entry.usage.getStandardCount());
+                DataInputOutputUtil.writeINT(out, entry.usage.getWhitespaceControlCount());
+            }
+
+            @Override
+            public Entry read(@NotNull DataInput in) throws IOException {
+                int profileHash = in.readInt();
+                return new Entry(profileHash, new DelimiterUsage(DataInputOutputUtil.readINT(in),
+                                                                 DataInputOutputUtil.readINT(in),
+                                                                 DataInputOutputUtil.readINT(in)));
+            }
+        };
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @NotNull
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter() {
+        return file -> JinjaLanguageFilter.isJinjaLanguageId(file.getFileType().getName()) ||
+                       !file.getFileType().isBinary() && TEMPLATE_EXTENSIONS.contains(extensionOf(file));
+    }
+
+    private static String extensionOf(VirtualFile file) {
+        String extension = file.getExtension();
+        return extension == null ? "" : extension.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the delimiter usage of {@code file}, or null if it has no delimiters or is not
+     *         indexed. Call in a read action in smart mode.
+     */
+    @Nullable
+    public static DelimiterUsage getUsage(@NotNull Project project, @NotNull VirtualFile file) {
+        Entry entry = FileBasedIndex.getInstance().getSingleEntryIndexData(NAME, file, project);
+        if (entry == null) {
+            return null;
+        }
+        DelimiterUsage usage = entry.usage;
+        DelimiterProfile profile = FileProfileResolver.resolve(project, file);
+        if (entry.profileHash != profile.hashCode()) {
+            // Counted against other delimiters: the settings or path rules changed since, or
+            // another project with other rules indexed the file
+            usage = DelimiterUsage.count(LoadTextUtil.loadText(file), profile);
+            FileBasedIndex.getInstance().requestReindex(file);
+        }
+        return usage == DelimiterUsage.NONE ? null : usage;
+    }
+
+    /**
+     * @return the indexed files in {@code scope} whose usage satisfies {@code condition}, with
+     *         their usage. Call in a read action in smart mode.
+     */
+    @NotNull
+    public static Map<VirtualFile, DelimiterUsage> findFiles(@NotNull Project project, @NotNull GlobalSearchScope scope,
+                                                             @NotNull Predicate<DelimiterUsage> condition) {
+        Map<VirtualFile, DelimiterUsage> files = new HashMap<>();
+        VirtualFileManager fileManager = VirtualFileManager.getInstance();
+        for (Integer fileId : FileBasedIndex.getInstance().getAllKeys(NAME, project)) {
+            ProgressManager.checkCanceled();
+            VirtualFile file = fileManager.findFileById(fileId);
+            if (file == null || !file.isValid() || !scope.contains(file)) {
+                continue;
+            }
+            DelimiterUsage usage = getUsage(project, file);
+            if (usage != null && condition.test(usage)) {
+                files.put(file, usage);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Counts of a file and the hash of the delimiters they were counted against.
+     */
+    public static final class Entry {
+        final int profileHash;
+        final DelimiterUsage usage;
+
+        Entry(int profileHash, @NotNull DelimiterUsage usage) {
+            this.profileHash = profileHash;
+            this.usage = usage;
+        }
+    }
+}
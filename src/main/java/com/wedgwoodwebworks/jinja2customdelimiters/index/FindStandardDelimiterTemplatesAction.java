@@ -0,0 +1,96 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.index;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.GlobalSearchScopesCore;
+import com.intellij.ui.SimpleListCellRenderer;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterUsage;
+import com.wedgwoodwebworks.jinja2customdelimiters.formatting.FileProfileResolver;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists the templates under the selected directories, or in the whole project, that still contain
+ * standard delimiters, i.e. the templates needing migration to the configured delimiters. The
+ * answer comes from {@link DelimiterUsageIndex}, without reading the files.
+ */
+public class FindStandardDelimiterTemplatesAction extends AnAction {
+
+    private static final String TITLE = "Templates Using Standard Delimiters";
+
+    @NotNull
+    @Override
+    public ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(
+            e.getProject() != null && FileProfileResolver.mayConvert());
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+        GlobalSearchScope scope = scopeOf(project, e.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY));
+
+        new Task.Backgroundable(project, "Finding templates using standard delimiters", true) {
+            private Map<VirtualFile, DelimiterUsage> usages;
+            private List<VirtualFile> files;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                usages = DumbService.getInstance(project).runReadActionInSmartMode(
+                    () -> DelimiterUsageIndex.findFiles(project, scope, DelimiterUsage::usesStandard));
+                // Templates with the most standard delimiters first
+                files = new ArrayList<>(usages.keySet());
+                files.sort(Comparator.comparingInt((VirtualFile file) -> -usages.get(file).getStandardCount())
+                                     .thenComparing(VirtualFile::getPath));
+            }
+
+            @Override
+            public void onSuccess() {
+                if (files.isEmpty()) {
+                    Messages.showInfoMessage(project, "No templates contain standard delimiters.", TITLE);
+                    return;
+                }
+                JBPopupFactory.getInstance()
+                    .createPopupChooserBuilder(files)
+                    .setTitle(TITLE + " (" + files.size() + ")")
+                    .setRenderer(SimpleListCellRenderer.<VirtualFile>create(
+                        "", file -> file.getPresentableUrl() + "  (" + usages.get(file) + ")"))
+                    .setNamerForFiltering(VirtualFile::getName)
+                    .setItemChosenCallback(file -> FileEditorManager.getInstance(project).openFile(file, true))
+                    .createPopup()
+                    .showCenteredInCurrentWindow(project);
+            }
+        }.queue();
+    }
+
+    private static GlobalSearchScope scopeOf(Project project, VirtualFile[] selection) {
+        VirtualFile[] directories = selection == null ? new VirtualFile[0]
+            : Arrays.stream(selection).filter(VirtualFile::isDirectory).toArray(VirtualFile[]::new);
+        return directories.length == 0 ? GlobalSearchScope.projectScope(project)
+            : GlobalSearchScopesCore.directoriesScope(project, true, directories);
+    }
+}
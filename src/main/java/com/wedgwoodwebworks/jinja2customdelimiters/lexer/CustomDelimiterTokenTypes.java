@@ -0,0 +1,18 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.lexer;
+
+import com.intellij.lang.Language;
+import com.intellij.psi.tree.IElementType;
+
+/**
+ * Token types {@link CustomDelimitersLexer} reports for custom delimiters instead of the Jinja2
+ * delimiter tokens they were lexed as, so they can be coloured on their own.
+ */
+public final class CustomDelimiterTokenTypes {
+
+    public static final IElementType BLOCK_DELIMITER = new IElementType("JINJA2_CUSTOM_BLOCK_DELIMITER", Language.ANY);
+    public static final IElementType VARIABLE_DELIMITER = new IElementType("JINJA2_CUSTOM_VARIABLE_DELIMITER", Language.ANY);
+    public static final IElementType COMMENT_DELIMITER = new IElementType("JINJA2_CUSTOM_COMMENT_DELIMITER", Language.ANY);
+
+    private CustomDelimiterTokenTypes() {
+    }
+}
@@ -0,0 +1,259 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.lexer;
+
+import com.intellij.lexer.Lexer;
+import com.intellij.lexer.LexerBase;
+import com.intellij.psi.tree.IElementType;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterTranslator;
+import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2DelimitersSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Supplier;
+
+/**
+ * Lexer adapter that lets the stock Jinja2 lexer tokenize text written with custom delimiters.
+ *
+ * On {@link #start} the requested range is translated to standard delimiters with the active
+ * {@link DelimiterProfile} and fed to the delegate; token offsets are then mapped back onto the
+ * original buffer. The adapter reports the delegate's states unchanged, so it stays restartable and
+ * the platform re-lexes only the damaged region after an edit.
+ *
+ * The range is translated in windows of about {@value #WINDOW_LENGTH} characters as the delegate
+ * reaches them, so re-lexing after an edit, which starts near the edit and usually stops a few
+ * tokens later, costs one window instead of a translation of the rest of the file. Tokens that
+ * cover a custom delimiter are reported as {@link CustomDelimiterTokenTypes}.
+ */
+public class CustomDelimitersLexer extends LexerBase {
+
+    static final int WINDOW_LENGTH = 16 * 1024;
+
+    private final Lexer delegate;
+    private final Supplier<DelimiterProfile> profileSupplier;
+
+    private CharSequence buffer;
+    private int endOffset;
+    private int initialState;
+    private DelimiterTranslator translator;
+
+    // Window of the buffer the delegate is lexing, and the state it was started with
+    private int windowStart;
+    private int windowEnd;
+    private int windowLength;
+    private int windowState;
+    private int translatedLength;
+
+    // Null when nothing in the window is translated and the delegate lexes the original buffer directly
+    private DelimiterEdits edits;
+    private int[] translatedStarts;
+    private int[] translatedEnds;
+
+    private IElementType delimiterType;
+
+    public CustomDelimitersLexer(@NotNull Lexer delegate) {
+        this(delegate, () -> Jinja2DelimitersSettings.getInstance().getProfile());
+    }
+
+    public CustomDelimitersLexer(@NotNull Lexer delegate, @NotNull DelimiterProfile profile) {
+        this(delegate, () -> profile);
+    }
+
+    public CustomDelimitersLexer(@NotNull Lexer delegate, @NotNull Supplier<DelimiterProfile> profileSupplier) {
+        this.delegate = delegate;
+        this.profileSupplier = profileSupplier;
+    }
+
+    @Override
+    public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+        this.buffer = buffer;
+        this.endOffset = endOffset;
+        this.initialState = initialState;
+        this.translator = profileSupplier.get().toStandard();
+
+        if (translator.isIdentity()) {
+            edits = null;
+            delimiterType = null;
+            windowStart = startOffset;
+            windowEnd = endOffset;
+            delegate.start(buffer, startOffset, endOffset, initialState);
+            return;
+        }
+        startWindow(startOffset, initialState, WINDOW_LENGTH);
+        settle();
+    }
+
+    @Override
+    public int getState() {
+        return delegate.getState();
+    }
+
+    @Nullable
+    @Override
+    public IElementType getTokenType() {
+        return delimiterType != null ? delimiterType : delegate.getTokenType();
+    }
+
+    @Override
+    public int getTokenStart() {
+        return toOriginal(delegate.getTokenStart());
+    }
+
+    @Override
+    public int getTokenEnd() {
+        return toOriginal(delegate.getTokenEnd());
+    }
+
+    @Override
+    public void advance() {
+        delegate.advance();
+        if (!translator.isIdentity()) {
+            settle();
+        }
+    }
+
+    @NotNull
+    @Override
+    public CharSequence getBufferSequence() {
+        return buffer;
+    }
+
+    @Override
+    public int getBufferEnd() {
+        return endOffset;
+    }
+
+    /**
+     * Translates the window starting at {@code start} and starts the delegate on it.
+     */
+    private void startWindow(int start, int state, int length) {
+        windowStart = start;
+        windowState = state;
+        windowLength = length;
+        windowEnd = endOffset - start <= length ? endOffset
+            : Math.min(endOffset, translator.expandEnd(buffer, start + length));
+
+        DelimiterEdits collected = translator.collectEdits(buffer, start, windowEnd);
+        if (collected.isEmpty()) {
+            edits = null;
+            delegate.start(buffer, start, windowEnd, state);
+            return;
+        }
+
+        edits = collected;
+        translatedStarts = new int[collected.size()];
+        translatedEnds = new int[collected.size()];
+        int delta = -start;
+        for (int i = 0; i < collected.size(); i++) {
+            translatedStarts[i] = collected.getStart(i) + delta;
+            translatedEnds[i] = translatedStarts[i] + collected.getReplacement(i).length();
+            delta += collected.getReplacement(i).length() - (collected.getEnd(i) - collected.getStart(i));
+        }
+
+        String translated = collected.applyTo(buffer, start, windowEnd);
+        translatedLength = translated.length();
+        delegate.start(translated, 0, translatedLength, state);
+    }
+
+    /**
+     * Moves the delegate to the next token that can be reported.
+     */
+    private void settle() {
+        while (delegate.getTokenType() != null) {
+            if (windowEnd < endOffset && delegate.getTokenEnd() >= (edits == null ? windowEnd : translatedLength)) {
+                continueAfterWindow();
+            } else if (edits != null && getTokenStart() >= getTokenEnd()) {
+                // A custom delimiter shorter than its standard counterpart (e.g. } for }}) can make a
+                // delegate token collapse to nothing once mapped back; such tokens are skipped
+                delegate.advance();
+            } else {
+                break;
+            }
+        }
+        delimiterType = findDelimiterType();
+    }
+
+    /**
+     * Replaces the current token, which runs into the end of the window and may continue past
+     * it, by lexing on past the window.
+     */
+    private void continueAfterWindow() {
+        int tokenStart = getTokenStart();
+        int state = delegate.getState();
+        if (state == initialState && tokenStart > windowStart && translator.expandStart(buffer, tokenStart) == tokenStart) {
+            // A point the platform could restart at too: the next window starts here
+            startWindow(tokenStart, state, WINDOW_LENGTH);
+            return;
+        }
+        // Lex the window again with more text and skip the tokens already reported
+        startWindow(windowStart, windowState, windowLength * 2);
+        while (delegate.getTokenType() != null && getTokenStart() < tokenStart) {
+            delegate.advance();
+        }
+    }
+
+    /**
+     * @return the custom delimiter type of the current token if it is a translated delimiter,
+     *         possibly with a whitespace-control marker, else null
+     */
+    @Nullable
+    private IElementType findDelimiterType() {
+        if (edits == null || delegate.getTokenType() == null) {
+            return null;
+        }
+        int tokenStart = delegate.getTokenStart();
+        int tokenEnd = delegate.getTokenEnd();
+        int index = lastEditStartingAtOrBefore(tokenEnd - 1);
+        if (index < 0 || translatedStarts[index] < tokenStart || translatedEnds[index] > tokenEnd ||
+            tokenEnd - tokenStart > translatedEnds[index] - translatedStarts[index] + 1 ||
+            edits.getStart(index) == edits.getEnd(index)) {
+            return null;
+        }
+        String standard = edits.getReplacement(index);
+        if (standard.indexOf('%') >= 0) {
+            return CustomDelimiterTokenTypes.BLOCK_DELIMITER;
+        }
+        if (standard.indexOf('#') >= 0) {
+            return CustomDelimiterTokenTypes.COMMENT_DELIMITER;
+        }
+        return CustomDelimiterTokenTypes.VARIABLE_DELIMITER;
+    }
+
+    /**
+     * Maps an offset in the translated text back to the original buffer. Offsets inside a
+     * replaced delimiter are clamped to the original delimiter.
+     */
+    private int toOriginal(int translatedOffset) {
+        if (edits == null) {
+            return translatedOffset;
+        }
+
+        int index = lastEditStartingAtOrBefore(translatedOffset);
+        if (index < 0) {
+            return windowStart + translatedOffset;
+        }
+
+        int originalStart = edits.getStart(index);
+        int originalEnd = edits.getEnd(index);
+        if (translatedOffset < translatedEnds[index]) {
+            return Math.min(originalStart + (translatedOffset - translatedStarts[index]), originalEnd);
+        }
+        return originalEnd + (translatedOffset - translatedEnds[index]);
+    }
+
+    private int lastEditStartingAtOrBefore(int translatedOffset) {
+        int low = 0;
+        int high = translatedStarts.length - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (translatedStarts[mid] <= translatedOffset) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+}
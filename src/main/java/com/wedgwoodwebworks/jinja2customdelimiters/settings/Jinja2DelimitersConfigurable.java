@@ -1,14 +1,24 @@
 package com.wedgwoodwebworks.jinja2customdelimiters.settings;
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.NlsContexts;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.formatting.ConversionMetrics;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.Insets;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 public class Jinja2DelimitersConfigurable implements Configurable {
 
@@ -21,7 +31,11 @@ public class Jinja2DelimitersConfigurable implements Configurable {
     private JTextField commentEndField;
     private JTextField lineStatementPrefixField;
     private JTextField lineCommentPrefixField;
+    private JCheckBox shadowFormattingCheckBox;
+    private JCheckBox incrementalTrackingCheckBox;
+    private JCheckBox autoDetectProfileCheckBox;
     private JButton resetDefaultsButton;
+    private JTextArea statisticsArea;
 
     @Nls(capitalization = Nls.Capitalization.Title)
     @Override
@@ -94,19 +108,60 @@ public class Jinja2DelimitersConfigurable implements Configurable {
         lineCommentPrefixField = new JTextField(10);
         mainPanel.add(lineCommentPrefixField, gbc);
 
-        // Reset button
+        // Formatting mode
         gbc.gridx = 0; gbc.gridy = 8; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        shadowFormattingCheckBox = new JCheckBox("Format whole files on a copy (experimental, one document change per format)");
+        mainPanel.add(shadowFormattingCheckBox, gbc);
+
+        gbc.gridx = 0; gbc.gridy = 9; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        incrementalTrackingCheckBox = new JCheckBox("Track delimiters of open files while typing (faster repeated formatting)");
+        mainPanel.add(incrementalTrackingCheckBox, gbc);
+
+        gbc.gridx = 0; gbc.gridy = 10; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        autoDetectProfileCheckBox = new JCheckBox("Detect per file whether a template uses the custom delimiters");
+        mainPanel.add(autoDetectProfileCheckBox, gbc);
+
+        // Reset button
+        gbc.gridx = 0; gbc.gridy = 11; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
         resetDefaultsButton = new JButton("Reset to Defaults");
         resetDefaultsButton.addActionListener(e -> resetToDefaults());
         mainPanel.add(resetDefaultsButton, gbc);
 
+        // Conversion statistics
+        gbc.gridx = 0; gbc.gridy = 12; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.insets = new Insets(15, 0, 5, 0);
+        mainPanel.add(new JLabel("Conversion Statistics:"), gbc);
+
+        gbc.gridx = 0; gbc.gridy = 13; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.BOTH;
+        gbc.insets = new Insets(0, 0, 5, 0);
+        statisticsArea = new JTextArea(10, 60);
+        statisticsArea.setEditable(false);
+        statisticsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, statisticsArea.getFont().getSize()));
+        mainPanel.add(new JScrollPane(statisticsArea), gbc);
+
+        gbc.gridx = 0; gbc.gridy = 14; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.NONE;
+        JPanel statisticsButtons = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        JButton refreshButton = new JButton("Refresh");
+        refreshButton.addActionListener(e -> refreshStatistics());
+        statisticsButtons.add(refreshButton);
+        JButton clearButton = new JButton("Clear");
+        clearButton.addActionListener(e -> {
+            ConversionMetrics.resetAll();
+            refreshStatistics();
+        });
+        statisticsButtons.add(clearButton);
+        JButton saveButton = new JButton("Save to File...");
+        saveButton.addActionListener(e -> saveStatistics());
+        statisticsButtons.add(saveButton);
+        mainPanel.add(statisticsButtons, gbc);
+
         // Help text
-        gbc.gridx = 0; gbc.gridy = 9; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.gridx = 0; gbc.gridy = 15; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.insets = new Insets(15, 0, 5, 0); // Add top spacing
         JTextArea helpText = new JTextArea(
             "Configure custom delimiters for Jinja2 templates.\n" +
             "Leave line prefixes empty to disable line-based syntax.\n" +
-            "Note: line prefixes are stored but not applied during formatting.\n" +
+            "Line prefixes are only recognised at the start of a line.\n" +
             "Code formatting (Cmd/Ctrl+Alt+L) requires PyCharm Professional.\n" +
             "Changes will take effect after restarting the IDE or refreshing files."
         );
@@ -119,6 +174,27 @@ public class Jinja2DelimitersConfigurable implements Configurable {
         mainPanel.add(helpText, gbc);
     }
 
+    private void refreshStatistics() {
+        statisticsArea.setText(ConversionMetrics.report());
+        statisticsArea.setCaretPosition(0);
+    }
+
+    private void saveStatistics() {
+        FileSaverDescriptor descriptor =
+            new FileSaverDescriptor("Save Conversion Statistics", "Save the Jinja2 delimiter conversion statistics", "txt");
+        VirtualFileWrapper target = FileChooserFactory.getInstance()
+            .createSaveFileDialog(descriptor, mainPanel)
+            .save("jinja2-delimiter-statistics.txt");
+        if (target == null) {
+            return;
+        }
+        try {
+            Files.writeString(target.getFile().toPath(), ConversionMetrics.report(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Messages.showErrorDialog(mainPanel, "Could not save statistics: " + e.getMessage(), "Save Conversion Statistics");
+        }
+    }
+
     private void resetToDefaults() {
         blockStartField.setText("{%");
         blockEndField.setText("%}");
@@ -128,6 +204,9 @@ public class Jinja2DelimitersConfigurable implements Configurable {
         commentEndField.setText("#}");
         lineStatementPrefixField.setText("");
         lineCommentPrefixField.setText("");
+        shadowFormattingCheckBox.setSelected(false);
+        incrementalTrackingCheckBox.setSelected(false);
+        autoDetectProfileCheckBox.setSelected(false);
     }
 
     @Override
@@ -140,7 +219,10 @@ public class Jinja2DelimitersConfigurable implements Configurable {
                !commentStartField.getText().equals(settings.getCommentStartString()) ||
                !commentEndField.getText().equals(settings.getCommentEndString()) ||
                !lineStatementPrefixField.getText().equals(settings.getLineStatementPrefix()) ||
-               !lineCommentPrefixField.getText().equals(settings.getLineCommentPrefix());
+               !lineCommentPrefixField.getText().equals(settings.getLineCommentPrefix()) ||
+               shadowFormattingCheckBox.isSelected() != settings.isShadowFormatting() ||
+               incrementalTrackingCheckBox.isSelected() != settings.isIncrementalTracking() ||
+               autoDetectProfileCheckBox.isSelected() != settings.isAutoDetectProfile();
     }
 
     @Override
@@ -162,14 +244,17 @@ public class Jinja2DelimitersConfigurable implements Configurable {
 
         // Apply settings if all validations pass
         Jinja2DelimitersSettings settings = Jinja2DelimitersSettings.getInstance();
-        settings.setBlockStartString(blockStartField.getText().trim());
-        settings.setBlockEndString(blockEndField.getText().trim());
-        settings.setVariableStartString(variableStartField.getText().trim());
-        settings.setVariableEndString(variableEndField.getText().trim());
-        settings.setCommentStartString(commentStartField.getText().trim());
-        settings.setCommentEndString(commentEndField.getText().trim());
-        settings.setLineStatementPrefix(lineStatementPrefixField.getText().trim());
-        settings.setLineCommentPrefix(lineCommentPrefixField.getText().trim());
+        settings.setDelimiters(new DelimiterProfile(
+            blockStartField.getText().trim(), blockEndField.getText().trim(),
+            variableStartField.getText().trim(), variableEndField.getText().trim(),
+            commentStartField.getText().trim(), commentEndField.getText().trim(),
+            lineStatementPrefixField.getText().trim(), lineCommentPrefixField.getText().trim()));
+        settings.setShadowFormatting(shadowFormattingCheckBox.isSelected());
+        settings.setIncrementalTracking(incrementalTrackingCheckBox.isSelected());
+        settings.setAutoDetectProfile(autoDetectProfileCheckBox.isSelected());
+
+        ApplicationManager.getApplication().getMessageBus()
+            .syncPublisher(Jinja2DelimitersSettings.TOPIC).settingsChanged();
     }
 
     /**
@@ -179,7 +264,7 @@ public class Jinja2DelimitersConfigurable implements Configurable {
      * @param fieldName The name of the field for error messages
      * @throws ConfigurationException if validation fails
      */
-    private void validateDelimiter(String delimiter, String fieldName) throws ConfigurationException {
+    static void validateDelimiter(String delimiter, String fieldName) throws ConfigurationException {
         if (delimiter == null || delimiter.trim().isEmpty()) {
             throw new ConfigurationException(fieldName + " cannot be empty");
         }
@@ -208,7 +293,7 @@ public class Jinja2DelimitersConfigurable implements Configurable {
      * @param fieldName The name of the field for error messages
      * @throws ConfigurationException if validation fails
      */
-    private void validateLinePrefix(String prefix, String fieldName) throws ConfigurationException {
+    static void validateLinePrefix(String prefix, String fieldName) throws ConfigurationException {
         if (prefix == null) {
             return; // Null is acceptable for line prefixes
         }
@@ -226,15 +311,22 @@ public class Jinja2DelimitersConfigurable implements Configurable {
      * @throws ConfigurationException if delimiters overlap
      */
     private void checkOverlappingDelimiters() throws ConfigurationException {
-        String[] delimiters = {
+        checkOverlappingDelimiters(new String[]{
             blockStartField.getText().trim(),
             blockEndField.getText().trim(),
             variableStartField.getText().trim(),
             variableEndField.getText().trim(),
             commentStartField.getText().trim(),
             commentEndField.getText().trim()
-        };
+        });
+    }
 
+    /**
+     * Checks the trimmed block, variable and comment delimiters, in that order, for overlaps.
+     *
+     * @throws ConfigurationException if delimiters overlap
+     */
+    static void checkOverlappingDelimiters(String[] delimiters) throws ConfigurationException {
         String[] names = {
             "Block Start",
             "Block End",
@@ -285,5 +377,9 @@ public class Jinja2DelimitersConfigurable implements Configurable {
         commentEndField.setText(settings.getCommentEndString());
         lineStatementPrefixField.setText(settings.getLineStatementPrefix());
         lineCommentPrefixField.setText(settings.getLineCommentPrefix());
+        shadowFormattingCheckBox.setSelected(settings.isShadowFormatting());
+        incrementalTrackingCheckBox.setSelected(settings.isIncrementalTracking());
+        autoDetectProfileCheckBox.setSelected(settings.isAutoDetectProfile());
+        refreshStatistics();
     }
 }
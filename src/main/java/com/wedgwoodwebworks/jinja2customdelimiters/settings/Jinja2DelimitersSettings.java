@@ -5,15 +5,26 @@ import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
 import com.intellij.util.xmlb.XmlSerializerUtil;
+import com.intellij.util.messages.Topic;
+import com.intellij.util.xmlb.annotations.Transient;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 @State(
     name = "Jinja2DelimitersSettings",
     storages = @Storage("jinja2_delimiters.xml")
 )
 public class Jinja2DelimitersSettings implements PersistentStateComponent<Jinja2DelimitersSettings> {
 
+    /**
+     * Published on the application message bus after the settings were applied.
+     */
+    @Topic.AppLevel
+    public static final Topic<Listener> TOPIC = new Topic<>(Listener.class, Topic.BroadcastDirection.NONE);
+
     // Volatile fields for thread-safe publication
     // These are public for XML serialization but should be accessed via getters
     public volatile String blockStartString = "{%";
@@ -24,6 +35,15 @@ public class Jinja2DelimitersSettings implements PersistentStateComponent<Jinja2
     public volatile String commentEndString = "#}";
     public volatile String lineStatementPrefix = "";
     public volatile String lineCommentPrefix = "";
+    // Format whole files on an in-memory copy instead of converting the document in place
+    public volatile boolean shadowFormatting = false;
+    // Keep the conversion edits of open files up to date while typing instead of scanning on format
+    public volatile boolean incrementalTracking = false;
+    // Leave templates alone whose first lines use standard or LaTeX-style delimiters only
+    public volatile boolean autoDetectProfile = false;
+
+    // Compiled snapshot of the fields above, rebuilt only when they change
+    private final AtomicReference<DelimiterProfile> profile = new AtomicReference<>(DelimiterProfile.STANDARD);
 
     public static Jinja2DelimitersSettings getInstance() {
         return ApplicationManager.getApplication().getService(Jinja2DelimitersSettings.class);
@@ -38,6 +58,17 @@ public class Jinja2DelimitersSettings implements PersistentStateComponent<Jinja2
     @Override
     public synchronized void loadState(@NotNull Jinja2DelimitersSettings state) {
         XmlSerializerUtil.copyBean(state, this);
+        rebuildProfile();
+    }
+
+    /**
+     * Returns the compiled delimiter profile. This is a single lock-free read intended for
+     * formatter threads; the profile is only rebuilt by the setters and {@link #loadState}.
+     */
+    @Transient
+    @NotNull
+    public DelimiterProfile getProfile() {
+        return profile.get();
     }
 
     // Thread-safe getters
@@ -81,40 +112,88 @@ public class Jinja2DelimitersSettings implements PersistentStateComponent<Jinja2
         return lineCommentPrefix != null ? lineCommentPrefix : "";
     }
 
+    public boolean isShadowFormatting() {
+        return shadowFormatting;
+    }
+
+    public boolean isIncrementalTracking() {
+        return incrementalTracking;
+    }
+
+    public boolean isAutoDetectProfile() {
+        return autoDetectProfile;
+    }
+
     // Thread-safe setters
     public synchronized void setBlockStartString(@NotNull String value) {
         this.blockStartString = value;
+        rebuildProfile();
     }
 
     public synchronized void setBlockEndString(@NotNull String value) {
         this.blockEndString = value;
+        rebuildProfile();
     }
 
     public synchronized void setVariableStartString(@NotNull String value) {
         this.variableStartString = value;
+        rebuildProfile();
     }
 
     public synchronized void setVariableEndString(@NotNull String value) {
         this.variableEndString = value;
+        rebuildProfile();
     }
 
     public synchronized void setCommentStartString(@NotNull String value) {
         this.commentStartString = value;
+        rebuildProfile();
     }
 
     public synchronized void setCommentEndString(@NotNull String value) {
         this.commentEndString = value;
+        rebuildProfile();
     }
 
     public synchronized void setLineStatementPrefix(@NotNull String value) {
         this.lineStatementPrefix = value;
+        rebuildProfile();
     }
 
     public synchronized void setLineCommentPrefix(@NotNull String value) {
         this.lineCommentPrefix = value;
+        rebuildProfile();
     }
 
-    public synchronized boolean isUsingCustomDelimiters() {
+    /**
+     * Sets all delimiters and line prefixes from {@code delimiters} and publishes the new profile
+     * once, so formatter threads never see a mix of old and new delimiters.
+     */
+    public synchronized void setDelimiters(@NotNull DelimiterProfile delimiters) {
+        this.blockStartString = delimiters.getBlockStart();
+        this.blockEndString = delimiters.getBlockEnd();
+        this.variableStartString = delimiters.getVariableStart();
+        this.variableEndString = delimiters.getVariableEnd();
+        this.commentStartString = delimiters.getCommentStart();
+        this.commentEndString = delimiters.getCommentEnd();
+        this.lineStatementPrefix = delimiters.getLineStatementPrefix();
+        this.lineCommentPrefix = delimiters.getLineCommentPrefix();
+        rebuildProfile();
+    }
+
+    public synchronized void setShadowFormatting(boolean value) {
+        this.shadowFormatting = value;
+    }
+
+    public synchronized void setIncrementalTracking(boolean value) {
+        this.incrementalTracking = value;
+    }
+
+    public synchronized void setAutoDetectProfile(boolean value) {
+        this.autoDetectProfile = value;
+    }
+
+    public boolean isUsingCustomDelimiters() {
         return !safeEquals("{%", blockStartString) ||
                !safeEquals("%}", blockEndString) ||
                !safeEquals("{{", variableStartString) ||
@@ -125,6 +204,15 @@ public class Jinja2DelimitersSettings implements PersistentStateComponent<Jinja2
                !safeStringEmpty(lineCommentPrefix);
     }
 
+    private void rebuildProfile() {
+        DelimiterProfile current = new DelimiterProfile(
+            getBlockStartString(), getBlockEndString(),
+            getVariableStartString(), getVariableEndString(),
+            getCommentStartString(), getCommentEndString(),
+            getLineStatementPrefix(), getLineCommentPrefix());
+        profile.set(current.equals(DelimiterProfile.STANDARD) ? DelimiterProfile.STANDARD : current);
+    }
+
     private boolean safeEquals(String expected, String actual) {
         if (actual == null) {
             return true;
@@ -135,4 +223,8 @@ public class Jinja2DelimitersSettings implements PersistentStateComponent<Jinja2
     private boolean safeStringEmpty(String str) {
         return str == null || str.isEmpty();
     }
+
+    public interface Listener {
+        void settingsChanged();
+    }
 }
@@ -0,0 +1,226 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.settings;
+
+import com.intellij.openapi.options.Configurable;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.project.Project;
+import com.intellij.ui.ToolbarDecorator;
+import com.intellij.ui.table.JBTable;
+import com.intellij.util.ui.EditableModel;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfileRules;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Project settings page listing the path rules of {@link Jinja2ProjectDelimitersSettings}.
+ */
+public class Jinja2ProjectDelimitersConfigurable implements Configurable {
+
+    private static final String[] COLUMNS = {
+        "Path Pattern", "Block Start", "Block End", "Variable Start", "Variable End",
+        "Comment Start", "Comment End", "Line Statement Prefix", "Line Comment Prefix"
+    };
+
+    private final Project project;
+    private JPanel mainPanel;
+    private RulesTableModel model;
+
+    public Jinja2ProjectDelimitersConfigurable(@NotNull Project project) {
+        this.project = project;
+    }
+
+    @Nls(capitalization = Nls.Capitalization.Title)
+    @Override
+    public String getDisplayName() {
+        return "Path Rules";
+    }
+
+    @Nullable
+    @Override
+    public JComponent createComponent() {
+        if (mainPanel == null) {
+            createUI();
+        }
+        return mainPanel;
+    }
+
+    private void createUI() {
+        mainPanel = new JPanel(new BorderLayout(0, 10));
+        model = new RulesTableModel();
+        JBTable table = new JBTable(model);
+        table.getEmptyText().setText("No rules: all templates use the application delimiters");
+        mainPanel.add(ToolbarDecorator.createDecorator(table).createPanel(), BorderLayout.CENTER);
+
+        JTextArea helpText = new JTextArea(
+            "Templates whose path below the project directory matches a pattern use the delimiters of the first\n" +
+            "matching rule; other templates use the application delimiters. Rules are stored in .idea/jinja2_delimiters.xml.\n" +
+            "Patterns: * within a directory, ** any number of directories, ? one character, {a,b} alternatives.\n" +
+            "A pattern without / matches file names in any directory, e.g. salt/**/*.sls, latex/** or *.j2.\n" +
+            "Keep the stock delimiters in a rule to leave matching templates unconverted."
+        );
+        helpText.setEditable(false);
+        helpText.setOpaque(false);
+        helpText.setFont(helpText.getFont().deriveFont(Font.PLAIN, helpText.getFont().getSize() - 1));
+        helpText.setForeground(UIManager.getColor("Label.disabledForeground"));
+        mainPanel.add(helpText, BorderLayout.SOUTH);
+    }
+
+    @Override
+    public boolean isModified() {
+        return !model.rules.equals(Jinja2ProjectDelimitersSettings.getInstance(project).getRules());
+    }
+
+    @Override
+    public void apply() throws ConfigurationException {
+        List<PathRule> rules = new ArrayList<>();
+        for (int i = 0; i < model.rules.size(); i++) {
+            PathRule rule = trimmed(model.rules.get(i));
+            String prefix = "Rule " + (i + 1) + ": ";
+            try {
+                DelimiterProfileRules.checkGlob(rule.pattern);
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException(prefix + e.getMessage());
+            }
+            try {
+                Jinja2DelimitersConfigurable.validateDelimiter(rule.blockStartString, "Block Start");
+                Jinja2DelimitersConfigurable.validateDelimiter(rule.blockEndString, "Block End");
+                Jinja2DelimitersConfigurable.validateDelimiter(rule.variableStartString, "Variable Start");
+                Jinja2DelimitersConfigurable.validateDelimiter(rule.variableEndString, "Variable End");
+                Jinja2DelimitersConfigurable.validateDelimiter(rule.commentStartString, "Comment Start");
+                Jinja2DelimitersConfigurable.validateDelimiter(rule.commentEndString, "Comment End");
+                Jinja2DelimitersConfigurable.validateLinePrefix(rule.lineStatementPrefix, "Line Statement Prefix");
+                Jinja2DelimitersConfigurable.validateLinePrefix(rule.lineCommentPrefix, "Line Comment Prefix");
+                Jinja2DelimitersConfigurable.checkOverlappingDelimiters(new String[]{
+                    rule.blockStartString, rule.blockEndString, rule.variableStartString,
+                    rule.variableEndString, rule.commentStartString, rule.commentEndString
+                });
+            } catch (ConfigurationException e) {
+                throw new ConfigurationException(prefix + e.getMessage());
+            }
+            rules.add(rule);
+        }
+        Jinja2ProjectDelimitersSettings.getInstance(project).setRules(rules);
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        model.rules.clear();
+        for (PathRule rule : Jinja2ProjectDelimitersSettings.getInstance(project).getRules()) {
+            model.rules.add(new PathRule(rule));
+        }
+        model.fireTableDataChanged();
+    }
+
+    @Override
+    public void disposeUIResources() {
+        mainPanel = null;
+        model = null;
+    }
+
+    private static PathRule trimmed(PathRule rule) {
+        PathRule copy = new PathRule(rule);
+        copy.pattern = trim(rule.pattern);
+        copy.blockStartString = trim(rule.blockStartString);
+        copy.blockEndString = trim(rule.blockEndString);
+        copy.variableStartString = trim(rule.variableStartString);
+        copy.variableEndString = trim(rule.variableEndString);
+        copy.commentStartString = trim(rule.commentStartString);
+        copy.commentEndString = trim(rule.commentEndString);
+        copy.lineStatementPrefix = trim(rule.lineStatementPrefix);
+        copy.lineCommentPrefix = trim(rule.lineCommentPrefix);
+        return copy;
+    }
+
+    private static String trim(String value) {
+        return value != null ? value.trim() : "";
+    }
+
+    private static final class RulesTableModel extends AbstractTableModel implements EditableModel {
+
+        final List<PathRule> rules = new ArrayList<>();
+
+        @Override
+        public int getRowCount() {
+            return rules.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return true;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            PathRule rule = rules.get(row);
+            switch (column) {
+                case 0: return rule.pattern;
+                case 1: return rule.blockStartString;
+                case 2: return rule.blockEndString;
+                case 3: return rule.variableStartString;
+                case 4: return rule.variableEndString;
+                case 5: return rule.commentStartString;
+                case 6: return rule.commentEndString;
+                case 7: return rule.lineStatementPrefix;
+                default: return rule.lineCommentPrefix;
+            }
+        }
+
+        @Override
+        public void setValueAt(Object value, int row, int column) {
+            PathRule rule = rules.get(row);
+            String text = value != null ? value.toString() : "";
+            switch (column) {
+                case 0: rule.pattern = text; break;
+                case 1: rule.blockStartString = text; break;
+                case 2: rule.blockEndString = text; break;
+                case 3: rule.variableStartString = text; break;
+                case 4: rule.variableEndString = text; break;
+                case 5: rule.commentStartString = text; break;
+                case 6: rule.commentEndString = text; break;
+                case 7: rule.lineStatementPrefix = text; break;
+                default: rule.lineCommentPrefix = text; break;
+            }
+            fireTableCellUpdated(row, column);
+        }
+
+        @Override
+        public void addRow() {
+            rules.add(new PathRule());
+            fireTableRowsInserted(rules.size() - 1, rules.size() - 1);
+        }
+
+        @Override
+        public void removeRow(int index) {
+            rules.remove(index);
+            fireTableRowsDeleted(index, index);
+        }
+
+        @Override
+        public void exchangeRows(int oldIndex, int newIndex) {
+            rules.set(newIndex, rules.set(oldIndex, rules.get(newIndex)));
+            fireTableRowsUpdated(Math.min(oldIndex, newIndex), Math.max(oldIndex, newIndex));
+        }
+
+        @Override
+        public boolean canExchangeRows(int oldIndex, int newIndex) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.settings;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.xmlb.annotations.XCollection;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfileRules;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-project path rules overriding the application delimiters, stored in the project's
+ * {@code .idea/jinja2_delimiters.xml} so they can be shared through version control.
+ *
+ * A rule matching {@code **} sets the delimiters of the whole project. Files no rule matches use
+ * the application delimiters.
+ */
+@State(
+    name = "Jinja2ProjectDelimitersSettings",
+    storages = @Storage("jinja2_delimiters.xml")
+)
+public class Jinja2ProjectDelimitersSettings
+    implements PersistentStateComponent<Jinja2ProjectDelimitersSettings.RulesState>, Disposable {
+
+    private static final Logger LOG = Logger.getInstance(Jinja2ProjectDelimitersSettings.class);
+
+    // Open projects with at least one rule, so format processors can still exit early when none has
+    private static final AtomicInteger PROJECTS_WITH_RULES = new AtomicInteger();
+
+    private final Project project;
+    // Copied on load and on change, never mutated
+    private volatile List<PathRule> rules = Collections.emptyList();
+    // Compiled snapshot of the rules above, rebuilt only when they change
+    private final AtomicReference<DelimiterProfileRules> compiled = new AtomicReference<>(DelimiterProfileRules.EMPTY);
+    // Advanced when files are moved or renamed, invalidating the rule matched per file
+    private final AtomicLong pathStamp = new AtomicLong();
+    private boolean countedWithRules;
+
+    public Jinja2ProjectDelimitersSettings(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public static Jinja2ProjectDelimitersSettings getInstance(@NotNull Project project) {
+        return project.getService(Jinja2ProjectDelimitersSettings.class);
+    }
+
+    /**
+     * @return true if any open project has path rules
+     */
+    public static boolean anyProjectHasRules() {
+        return PROJECTS_WITH_RULES.get() > 0;
+    }
+
+    @Nullable
+    @Override
+    public synchronized RulesState getState() {
+        RulesState state = new RulesState();
+        state.rules = new ArrayList<>(rules);
+        return state;
+    }
+
+    @Override
+    public synchronized void loadState(@NotNull RulesState state) {
+        rules = state.rules != null ? copyOf(state.rules) : Collections.emptyList();
+        recompile();
+    }
+
+    @NotNull
+    public List<PathRule> getRules() {
+        return rules;
+    }
+
+    public synchronized void setRules(@NotNull List<PathRule> value) {
+        rules = copyOf(value);
+        recompile();
+    }
+
+    /**
+     * Returns the compiled rules. This is a single lock-free read intended for formatter threads.
+     */
+    @NotNull
+    public DelimiterProfileRules getCompiledRules() {
+        return compiled.get();
+    }
+
+    /**
+     * @return a counter that changes whenever a file of the project may have changed its path
+     */
+    public long getPathStamp() {
+        return pathStamp.get();
+    }
+
+    /**
+     * @return the {@code /}-separated path of {@code file} below the project directory, or null if
+     *         the file is outside it
+     */
+    @Nullable
+    public String getRelativePath(@NotNull VirtualFile file) {
+        VirtualFile projectDir = ProjectUtil.guessProjectDir(project);
+        return projectDir != null ? VfsUtilCore.getRelativePath(file, projectDir, '/') : null;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (countedWithRules) {
+            PROJECTS_WITH_RULES.decrementAndGet();
+            countedWithRules = false;
+        }
+    }
+
+    private void recompile() {
+        Map<String, DelimiterProfile> profiles = new LinkedHashMap<>();
+        for (PathRule rule : rules) {
+            String pattern = rule.pattern != null ? rule.pattern.trim() : "";
+            try {
+                DelimiterProfileRules.checkGlob(pattern);
+            } catch (IllegalArgumentException e) {
+                // Only reachable through a hand-edited file; the settings page rejects bad patterns
+                LOG.warn("Ignoring Jinja2 delimiter rule: " + e.getMessage());
+                continue;
+            }
+            profiles.putIfAbsent(pattern, rule.toProfile());
+        }
+        compiled.set(DelimiterProfileRules.compile(profiles));
+
+        boolean hasRules = !profiles.isEmpty();
+        if (hasRules != countedWithRules) {
+            PROJECTS_WITH_RULES.addAndGet(hasRules ? 1 : -1);
+            countedWithRules = hasRules;
+        }
+    }
+
+    private static List<PathRule> copyOf(List<PathRule> value) {
+        List<PathRule> copy = new ArrayList<>(value.size());
+        for (PathRule rule : value) {
+            copy.add(new PathRule(rule));
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * Serialized form of the rules.
+     */
+    public static class RulesState {
+        @XCollection(style = XCollection.Style.v2)
+        public List<PathRule> rules = new ArrayList<>();
+    }
+
+    /**
+     * Advances the path stamp of the project when files are moved or renamed.
+     */
+    public static class PathListener implements BulkFileListener {
+
+        private final Project project;
+
+        public PathListener(@NotNull Project project) {
+            this.project = project;
+        }
+
+        @Override
+        public void after(@NotNull List<? extends VFileEvent> events) {
+            for (VFileEvent event : events) {
+                if (event instanceof VFileMoveEvent ||
+                    event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename()) {
+                    Jinja2ProjectDelimitersSettings settings = getInstance(project);
+                    if (!settings.getCompiledRules().isEmpty()) {
+                        settings.pathStamp.incrementAndGet();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
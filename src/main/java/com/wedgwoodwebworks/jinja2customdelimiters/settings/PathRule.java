@@ -0,0 +1,79 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.settings;
+
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * A path pattern and the delimiters of the templates it matches; serialized into the project's
+ * {@code jinja2_delimiters.xml}.
+ */
+public class PathRule {
+
+    // Public for XML serialization, like the fields of Jinja2DelimitersSettings
+    public String pattern = "**";
+    public String blockStartString = "{%";
+    public String blockEndString = "%}";
+    public String variableStartString = "{{";
+    public String variableEndString = "}}";
+    public String commentStartString = "{#";
+    public String commentEndString = "#}";
+    public String lineStatementPrefix = "";
+    public String lineCommentPrefix = "";
+
+    public PathRule() {
+    }
+
+    public PathRule(@NotNull PathRule other) {
+        pattern = other.pattern;
+        blockStartString = other.blockStartString;
+        blockEndString = other.blockEndString;
+        variableStartString = other.variableStartString;
+        variableEndString = other.variableEndString;
+        commentStartString = other.commentStartString;
+        commentEndString = other.commentEndString;
+        lineStatementPrefix = other.lineStatementPrefix;
+        lineCommentPrefix = other.lineCommentPrefix;
+    }
+
+    @NotNull
+    public DelimiterProfile toProfile() {
+        DelimiterProfile profile = new DelimiterProfile(
+            nonNull(blockStartString), nonNull(blockEndString),
+            nonNull(variableStartString), nonNull(variableEndString),
+            nonNull(commentStartString), nonNull(commentEndString),
+            nonNull(lineStatementPrefix), nonNull(lineCommentPrefix));
+        return profile.equals(DelimiterProfile.STANDARD) ? DelimiterProfile.STANDARD : profile;
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PathRule)) {
+            return false;
+        }
+        PathRule other = (PathRule) o;
+        return Objects.equals(pattern, other.pattern) &&
+               Objects.equals(blockStartString, other.blockStartString) &&
+               Objects.equals(blockEndString, other.blockEndString) &&
+               Objects.equals(variableStartString, other.variableStartString) &&
+               Objects.equals(variableEndString, other.variableEndString) &&
+               Objects.equals(commentStartString, other.commentStartString) &&
+               Objects.equals(commentEndString, other.commentEndString) &&
+               Objects.equals(lineStatementPrefix, other.lineStatementPrefix) &&
+               Objects.equals(lineCommentPrefix, other.lineCommentPrefix);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pattern, blockStartString, blockEndString, variableStartString, variableEndString,
+                            commentStartString, commentEndString, lineStatementPrefix, lineCommentPrefix);
+    }
+}
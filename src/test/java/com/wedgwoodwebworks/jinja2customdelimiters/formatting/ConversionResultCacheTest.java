@@ -0,0 +1,57 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+
+import static com.wedgwoodwebworks.jinja2customdelimiters.formatting.ConversionResultCache.Direction.FROM_STANDARD;
+import static com.wedgwoodwebworks.jinja2customdelimiters.formatting.ConversionResultCache.Direction.TO_STANDARD;
+
+public class ConversionResultCacheTest extends BasePlatformTestCase {
+
+    private static final DelimiterProfile SQUARE = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", "");
+
+    public void testRepeatedCallOnUnchangedTextHits() {
+        Document document = EditorFactory.getInstance().createDocument("<p>no delimiters here</p>");
+        TextRange range = new TextRange(0, document.getTextLength());
+        long stamp = document.getModificationStamp();
+
+        assertFalse(ConversionResultCache.lookup(document, TO_STANDARD, stamp, range, SQUARE));
+        ConversionResultCache.store(document, TO_STANDARD, stamp, range, SQUARE);
+
+        // The formatter left the text alone, so the next format starts from the same stamp
+        assertTrue(ConversionResultCache.lookup(document, TO_STANDARD, document.getModificationStamp(), range, SQUARE));
+        assertFalse(ConversionResultCache.lookup(document, FROM_STANDARD, stamp, range, SQUARE));
+        assertFalse(ConversionResultCache.lookup(document, TO_STANDARD, stamp, new TextRange(0, 3), SQUARE));
+        assertFalse(ConversionResultCache.lookup(document, TO_STANDARD, stamp, range, DelimiterProfile.STANDARD));
+    }
+
+    public void testEditInvalidatesEntries() {
+        Document document = EditorFactory.getInstance().createDocument("<p>text</p>");
+        TextRange range = new TextRange(0, document.getTextLength());
+        ConversionResultCache.store(document, TO_STANDARD, document.getModificationStamp(), range, SQUARE);
+
+        // E.g. the post pass restoring delimiters, or the user typing one
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> document.insertString(3, "[[ x ]]"));
+
+        assertFalse(ConversionResultCache.lookup(document, TO_STANDARD, document.getModificationStamp(),
+                                                 new TextRange(0, document.getTextLength()), SQUARE));
+        assertFalse(ConversionResultCache.lookup(document, TO_STANDARD, document.getModificationStamp(), range, SQUARE));
+    }
+
+    public void testStampFromBeforeAnEditIsNotStored() {
+        Document document = EditorFactory.getInstance().createDocument("<p>[[ x ]]</p>");
+        TextRange range = new TextRange(0, document.getTextLength());
+        long before = document.getModificationStamp();
+
+        // A pass that converted the text must not be remembered as having nothing to convert
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> document.replaceString(3, 5, "{{"));
+        ConversionResultCache.store(document, TO_STANDARD, before, range, SQUARE);
+
+        assertFalse(ConversionResultCache.lookup(document, TO_STANDARD, before, range, SQUARE));
+        assertFalse(ConversionResultCache.lookup(document, TO_STANDARD, document.getModificationStamp(), range, SQUARE));
+    }
+}
@@ -0,0 +1,79 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+
+public class ConvertedDelimiterSitesTest extends BasePlatformTestCase {
+
+    private static final DelimiterProfile SQUARE = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+
+    public void testRestoresConvertedSitesAndPrefixedLines() {
+        Document document = convert("<ul>\n%% for x in y\n<li>[[ x ]]</li>\n%% endfor\n</ul>");
+        assertEquals("<ul>\n{% for x in y %}\n<li>{{ x }}</li>\n{% endfor %}\n</ul>", document.getText());
+
+        assertEquals("<ul>\n%% for x in y\n<li>[[ x ]]</li>\n%% endfor\n</ul>", restore(document));
+    }
+
+    public void testLiteralStandardDelimitersAreNotConverted() {
+        Document document = convert("[[ a ]] <code>{{ b }}</code>");
+
+        assertEquals("[[ a ]] <code>{{ b }}</code>", restore(document));
+    }
+
+    public void testSitesDoNotOutliveTheFormat() {
+        Document document = convert("[[ a ]]\n<p>text</p>\n[[ b ]]");
+        restore(document);
+
+        // A second post pass of the same format has nothing left to do
+        DelimiterEdits again = ConvertedDelimiterSites.takeEdits(document, SQUARE.fromStandard());
+        assertNotNull(again);
+        assertTrue(again.isEmpty());
+
+        // Standard delimiters typed by hand afterwards are no longer tied to the format
+        edit(document, () -> document.insertString(0, "{{ c }}"));
+        assertNull(ConvertedDelimiterSites.takeEdits(document, SQUARE.fromStandard()));
+    }
+
+    public void testWhitespaceChangedByFormatterKeepsSite() {
+        Document document = convert("%% if x\n[[ y ]]");
+        // The formatter drops the blank before the closer of the prefixed line
+        int closer = document.getText().indexOf(" %}");
+        edit(document, () -> document.deleteString(closer, closer + 1));
+
+        assertEquals("%% if x\n[[ y ]]", restore(document));
+    }
+
+    public void testSiteRewrittenByFormatterIsConvertedOnItsOwn() {
+        Document document = convert("%% if x\n[[ y ]]");
+        // Turn the recorded {{ into {% so it no longer matches its site
+        int variable = document.getText().indexOf("{{");
+        edit(document, () -> document.replaceString(variable + 1, variable + 2, "%"));
+
+        // The rewritten site is scanned with the profile; the prefixed line is still restored exactly
+        assertEquals("%% if x\n[% y ]]", restore(document));
+    }
+
+    private Document convert(String text) {
+        Document document = EditorFactory.getInstance().createDocument(text);
+        DelimiterEdits edits = SQUARE.toStandard().collectEdits(text, 0, text.length());
+        edit(document, () -> DelimiterEditApplier.apply(document, edits));
+        ConvertedDelimiterSites.record(document, text, edits);
+        return document;
+    }
+
+    private String restore(Document document) {
+        DelimiterEdits edits = ConvertedDelimiterSites.takeEdits(document, SQUARE.fromStandard());
+        assertNotNull(edits);
+        edit(document, () -> DelimiterEditApplier.apply(document, edits));
+        ConvertedDelimiterSites.markRestored(document);
+        return document.getText();
+    }
+
+    private void edit(Document document, Runnable change) {
+        WriteCommandAction.runWriteCommandAction(getProject(), change);
+    }
+}
@@ -0,0 +1,109 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterEdits;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+
+public class DelimiterEditsShadowTest extends BasePlatformTestCase {
+
+    private static final DelimiterProfile SQUARE = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+
+    private static final String TEMPLATE = "<ul>\n%% for x in y\n      <li>[[ x ]]</li>\n%% endfor\n</ul>\n<p>[[z]]</p>";
+
+    private Document document;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        document = EditorFactory.getInstance().createDocument(TEMPLATE);
+        DelimiterEditsShadow.attach(document);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            DelimiterEditsShadow.detach(document);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testSurvivesFormatCycle() {
+        seed();
+
+        // Pre pass: convert the document in place, remembering the sites
+        CharSequence custom = document.getImmutableCharSequence();
+        DelimiterEdits toStandard = SQUARE.toStandard().collectEdits(custom, 0, custom.length());
+        edit(() -> DelimiterEditApplier.apply(document, toStandard));
+        ConvertedDelimiterSites.record(document, custom, toStandard);
+
+        // Formatter: reindent the list item and space out the variable
+        int indent = document.getText().indexOf("      <li>");
+        edit(() -> document.deleteString(indent, indent + 4));
+        int variable = document.getText().indexOf("{{z}}");
+        edit(() -> {
+            document.insertString(variable + 3, " ");
+            document.insertString(variable + 2, " ");
+        });
+
+        // Post pass: restore the sites
+        DelimiterEdits restore = ConvertedDelimiterSites.takeEdits(document, SQUARE.fromStandard());
+        assertNotNull(restore);
+        edit(() -> DelimiterEditApplier.apply(document, restore));
+        ConvertedDelimiterSites.markRestored(document);
+        assertEquals("<ul>\n%% for x in y\n  <li>[[ x ]]</li>\n%% endfor\n</ul>\n<p>[[ z ]]</p>", document.getText());
+
+        // The next format looks the conversion up instead of scanning
+        DelimiterEdits tracked = DelimiterEditsShadow.lookup(document, wholeDocument(), SQUARE);
+        assertNotNull(tracked);
+        assertEquals(describe(scan()), describe(tracked));
+    }
+
+    public void testEditsOfOutdatedTextAreNotSeeded() {
+        long stamp = document.getModificationStamp();
+        DelimiterEdits edits = scan();
+        edit(() -> document.insertString(0, "[[ a ]]"));
+
+        DelimiterEditsShadow.seed(document, stamp, wholeDocument(), SQUARE, edits);
+
+        assertNull(DelimiterEditsShadow.lookup(document, wholeDocument(), SQUARE));
+    }
+
+    public void testOtherProfileIsNotServed() {
+        seed();
+
+        DelimiterProfile angle = new DelimiterProfile("<%", "%>", "<<", ">>", "<#", "#>", "", "");
+        assertNull(DelimiterEditsShadow.lookup(document, wholeDocument(), angle));
+    }
+
+    private void seed() {
+        DelimiterEditsShadow.seed(document, document.getModificationStamp(), wholeDocument(), SQUARE, scan());
+        assertNotNull(DelimiterEditsShadow.lookup(document, wholeDocument(), SQUARE));
+    }
+
+    private DelimiterEdits scan() {
+        CharSequence text = document.getImmutableCharSequence();
+        return SQUARE.toStandard().collectEdits(text, 0, text.length());
+    }
+
+    private TextRange wholeDocument() {
+        return new TextRange(0, document.getTextLength());
+    }
+
+    private void edit(Runnable change) {
+        WriteCommandAction.runWriteCommandAction(getProject(), change);
+    }
+
+    private static String describe(DelimiterEdits edits) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < edits.size(); i++) {
+            description.append(edits.getStart(i)).append('-').append(edits.getEnd(i))
+                       .append(':').append(edits.getReplacement(i)).append(' ');
+        }
+        return description.toString();
+    }
+}
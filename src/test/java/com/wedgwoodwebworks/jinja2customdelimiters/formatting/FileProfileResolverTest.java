@@ -0,0 +1,73 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2DelimitersSettings;
+
+public class FileProfileResolverTest extends BasePlatformTestCase {
+
+    private static final DelimiterProfile SQUARE = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", "");
+
+    private Jinja2DelimitersSettings settings;
+    private DelimiterProfile previousDelimiters;
+    private boolean previousAutoDetect;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        settings = Jinja2DelimitersSettings.getInstance();
+        previousDelimiters = settings.getProfile();
+        previousAutoDetect = settings.isAutoDetectProfile();
+        settings.setDelimiters(SQUARE);
+        settings.setAutoDetectProfile(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            settings.setDelimiters(previousDelimiters);
+            settings.setAutoDetectProfile(previousAutoDetect);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testDetectionFollowsUnsavedEdits() {
+        PsiFile file = myFixture.configureByText("page.jinja2", "<p>{{ name }}</p>");
+        Document document = myFixture.getEditor().getDocument();
+        assertTrue(FileProfileResolver.resolve(file, document).isStandard());
+
+        // Not saved: the next format must still see the custom delimiters
+        edit(() -> document.setText("<p>[[ name ]]</p>"));
+        assertEquals(SQUARE, FileProfileResolver.resolve(file, document));
+    }
+
+    public void testFormatProfileIsPinnedAcrossConversion() {
+        PsiFile file = myFixture.configureByText("page.jinja2", "<p>[[ name ]]</p>");
+        Document document = myFixture.getEditor().getDocument();
+        assertEquals(SQUARE, FileProfileResolver.resolveForFormat(file, document));
+
+        // What the pre processor leaves for the post processor reads as a standard template
+        edit(() -> document.setText("<p>{{ name }}</p>"));
+        assertTrue(FileProfileResolver.resolve(file, document).isStandard());
+        assertEquals(SQUARE, FileProfileResolver.takeFormatProfile(file, document));
+    }
+
+    public void testFormatProfileIsTakenOnce() {
+        PsiFile file = myFixture.configureByText("page.jinja2", "<p>[[ name ]]</p>");
+        Document document = myFixture.getEditor().getDocument();
+        FileProfileResolver.resolveForFormat(file, document);
+        assertEquals(SQUARE, FileProfileResolver.takeFormatProfile(file, document));
+
+        // A later format of a template rewritten in stock delimiters must not reuse the pin
+        edit(() -> document.setText("<p>{{ name }}</p>"));
+        assertTrue(FileProfileResolver.takeFormatProfile(file, document).isStandard());
+    }
+
+    private void edit(Runnable change) {
+        WriteCommandAction.runWriteCommandAction(getProject(), change);
+    }
+}
@@ -0,0 +1,95 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.formatting;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.codeStyle.CodeStyleManager;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import com.wedgwoodwebworks.jinja2customdelimiters.settings.Jinja2DelimitersSettings;
+
+public class ShadowCopyFormatterTest extends BasePlatformTestCase {
+
+    private static final DelimiterProfile SQUARE = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+
+    private static final String TEMPLATE =
+        "<ul>\n" +
+        "%% for x in items\n" +
+        "        <li>[[ x ]]</li>\n" +
+        "%% endfor\n" +
+        "</ul>\n" +
+        "[% raw %]\n" +
+        "  [[ kept ]] {{ literal }}\n" +
+        "[% endraw %]\n" +
+        "<div>\n" +
+        "<p>{{ not_converted }}</p>\n" +
+        "</div>\n";
+
+    private Jinja2DelimitersSettings settings;
+    private DelimiterProfile previousDelimiters;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        settings = Jinja2DelimitersSettings.getInstance();
+        previousDelimiters = settings.getProfile();
+        settings.setDelimiters(SQUARE);
+        settings.setAutoDetectProfile(false);
+        settings.setIncrementalTracking(false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            settings.setDelimiters(previousDelimiters);
+            settings.setShadowFormatting(false);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testShadowFormatMatchesInPlaceRoundTrip() {
+        settings.setShadowFormatting(false);
+        String inPlace = reformat("in_place.jinja2", TEMPLATE);
+
+        settings.setShadowFormatting(true);
+        String shadow = reformat("shadow.jinja2", TEMPLATE);
+
+        assertEquals(inPlace, shadow);
+    }
+
+    public void testShadowFormatKeepsRawBlocksAndLinePrefixes() {
+        settings.setShadowFormatting(true);
+        String formatted = reformat("page.jinja2", TEMPLATE);
+
+        assertTrue(formatted, formatted.contains("%% for x in items\n"));
+        assertTrue(formatted, formatted.contains("%% endfor\n"));
+        assertTrue(formatted, formatted.contains("[[ x ]]"));
+        // Raw block content and literal standard delimiters are written back untouched
+        assertTrue(formatted, formatted.contains("  [[ kept ]] {{ literal }}\n"));
+        assertTrue(formatted, formatted.contains("{{ not_converted }}"));
+        // No converted delimiter is left behind in the document
+        assertFalse(formatted, formatted.contains("{%"));
+        assertFalse(formatted, formatted.contains("{{ x }}"));
+    }
+
+    public void testOuterFormatterLeavesShadowFormattedDocumentAlone() {
+        settings.setShadowFormatting(true);
+        PsiFile file = myFixture.configureByText("page.jinja2", TEMPLATE);
+        String once = reformat(file);
+
+        // The empty range handed back must not let the outer formatter touch the custom text
+        assertEquals(once, reformat(file));
+    }
+
+    private String reformat(String name, String text) {
+        return reformat(myFixture.configureByText(name, text));
+    }
+
+    private String reformat(PsiFile file) {
+        assertTrue("Not a Jinja2 file: " + file.getLanguage().getID(),
+                   JinjaLanguageFilter.isJinjaLanguage(file.getLanguage()));
+        WriteCommandAction.runWriteCommandAction(getProject(),
+            () -> CodeStyleManager.getInstance(getProject()).reformat(file));
+        return myFixture.getEditor().getDocument().getText();
+    }
+}
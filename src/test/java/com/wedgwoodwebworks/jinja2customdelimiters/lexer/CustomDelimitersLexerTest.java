@@ -0,0 +1,384 @@
+package com.wedgwoodwebworks.jinja2customdelimiters.lexer;
+
+import com.intellij.lang.Language;
+import com.intellij.lexer.Lexer;
+import com.intellij.lexer.LexerBase;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.testFramework.LexerTestCase;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CustomDelimitersLexerTest extends LexerTestCase {
+
+    private static final DelimiterProfile SQUARE = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "", "");
+    private static final DelimiterProfile LINES = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "%%", "");
+    // Variable end shorter than the standard one, so a split delegate token collapses to nothing
+    private static final DelimiterProfile DOLLAR = new DelimiterProfile("<%", "%>", "${", "}", "<#", "#>", "", "");
+
+    @Override
+    protected Lexer createLexer() {
+        return new CustomDelimitersLexer(new JinjaLikeLexer(false), SQUARE);
+    }
+
+    @Override
+    protected String getDirPath() {
+        return "";
+    }
+
+    public void testCustomDelimitersAreHighlightedAsDelimiters() {
+        doTest("<p>[% if x %][[ y ]][# note #]</p>",
+               "TEXT ('<p>')\n" +
+               "JINJA2_CUSTOM_BLOCK_DELIMITER ('[%')\n" +
+               "WHITE_SPACE (' ')\n" +
+               "NAME ('if')\n" +
+               "WHITE_SPACE (' ')\n" +
+               "NAME ('x')\n" +
+               "WHITE_SPACE (' ')\n" +
+               "JINJA2_CUSTOM_BLOCK_DELIMITER ('%]')\n" +
+               "JINJA2_CUSTOM_VARIABLE_DELIMITER ('[[')\n" +
+               "WHITE_SPACE (' ')\n" +
+               "NAME ('y')\n" +
+               "WHITE_SPACE (' ')\n" +
+               "JINJA2_CUSTOM_VARIABLE_DELIMITER (']]')\n" +
+               "JINJA2_CUSTOM_COMMENT_DELIMITER ('[#')\n" +
+               "COMMENT (' note ')\n" +
+               "JINJA2_CUSTOM_COMMENT_DELIMITER ('#]')\n" +
+               "TEXT ('</p>')");
+    }
+
+    public void testWhitespaceControlStaysOnTheDelimiter() {
+        doTest("[%- if x -%]",
+               "JINJA2_CUSTOM_BLOCK_DELIMITER ('[%-')\n" +
+               "WHITE_SPACE (' ')\n" +
+               "NAME ('if')\n" +
+               "WHITE_SPACE (' ')\n" +
+               "NAME ('x')\n" +
+               "WHITE_SPACE (' ')\n" +
+               "JINJA2_CUSTOM_BLOCK_DELIMITER ('-%]')");
+    }
+
+    public void testDelimiterSpanningWindowBoundary() {
+        String unit = "[[ a ]]\n";
+        // Every offset of the unit, delimiters included, lands once on the first window boundary
+        for (int padding = 0; padding < unit.length(); padding++) {
+            String prefix = "x".repeat(padding);
+            List<String> expected = new ArrayList<>();
+            if (padding > 0) {
+                expected.add("TEXT ('" + prefix + "')");
+            }
+            int units = 3 * CustomDelimitersLexer.WINDOW_LENGTH / unit.length();
+            expected.addAll(repeat(lexAll(createLexer(), unit), units));
+
+            assertEquals(expected, lexAll(createLexer(), prefix + unit.repeat(units + 1)).subList(0, expected.size()));
+        }
+    }
+
+    public void testTokensLongerThanWindow() {
+        String content = "comment ".repeat(CustomDelimitersLexer.WINDOW_LENGTH / 2);
+        String text = "<p>" + "x".repeat(2 * CustomDelimitersLexer.WINDOW_LENGTH) + "</p>[# " + content + "#][[ y ]]";
+
+        List<String> tokens = lexAll(createLexer(), text);
+
+        assertEquals(9, tokens.size());
+        assertEquals("JINJA2_CUSTOM_COMMENT_DELIMITER ('[#')", tokens.get(1));
+        assertEquals("COMMENT (' " + content + "')", tokens.get(2));
+        assertEquals("JINJA2_CUSTOM_COMMENT_DELIMITER ('#]')", tokens.get(3));
+        assertEquals("JINJA2_CUSTOM_VARIABLE_DELIMITER (']]')", tokens.get(8));
+    }
+
+    public void testCollapsedTokensAreSkipped() {
+        Lexer lexer = new CustomDelimitersLexer(new JinjaLikeLexer(true), DOLLAR);
+        // The translated }} is lexed as two braces; the second one maps back to nothing
+        assertEquals(List.of("TEXT ('<p>')",
+                             "JINJA2_CUSTOM_VARIABLE_DELIMITER ('${')",
+                             "WHITE_SPACE (' ')",
+                             "NAME ('y')",
+                             "WHITE_SPACE (' ')",
+                             "RBRACE ('}')",
+                             "TEXT ('</p>')"),
+                     lexAll(lexer, "<p>${ y }</p>"));
+    }
+
+    public void testInsertedLineStatementEndIsSkipped() {
+        Lexer lexer = new CustomDelimitersLexer(new JinjaLikeLexer(false), LINES);
+        // The block end inserted at the end of the line has no original text to map to
+        assertEquals(List.of("JINJA2_CUSTOM_BLOCK_DELIMITER ('%%')",
+                             "WHITE_SPACE (' ')",
+                             "NAME ('if')",
+                             "WHITE_SPACE (' ')",
+                             "NAME ('x')",
+                             "TEXT ('\n<p>')",
+                             "JINJA2_CUSTOM_VARIABLE_DELIMITER ('[[')",
+                             "WHITE_SPACE (' ')",
+                             "NAME ('y')",
+                             "WHITE_SPACE (' ')",
+                             "JINJA2_CUSTOM_VARIABLE_DELIMITER (']]')",
+                             "TEXT ('</p>\n')"),
+                     lexAll(lexer, "%% if x\n<p>[[ y ]]</p>\n"));
+    }
+
+    public void testCollapsedTokensAcrossWindows() {
+        String unit = "${ a }\n";
+        for (int padding = 0; padding < unit.length(); padding++) {
+            Lexer lexer = new CustomDelimitersLexer(new JinjaLikeLexer(true), DOLLAR);
+            String prefix = "x".repeat(padding);
+            List<String> expected = new ArrayList<>();
+            if (padding > 0) {
+                expected.add("TEXT ('" + prefix + "')");
+            }
+            int units = 3 * CustomDelimitersLexer.WINDOW_LENGTH / unit.length();
+            expected.addAll(repeat(lexAll(lexer, unit), units));
+
+            assertEquals(expected, lexAll(lexer, prefix + unit.repeat(units + 1)).subList(0, expected.size()));
+        }
+    }
+
+    public void testWindowsStartedInsideTagStayInsideTag() {
+        // Lexing starts inside a tag that runs past several windows, as after an edit in a long tag
+        String text = "x ".repeat(CustomDelimitersLexer.WINDOW_LENGTH) + "%]";
+        List<String> expected = repeat(List.of("NAME ('x')", "WHITE_SPACE (' ')"), CustomDelimitersLexer.WINDOW_LENGTH);
+        expected.add("JINJA2_CUSTOM_BLOCK_DELIMITER ('%]')");
+
+        assertEquals(expected, lexAll(createLexer(), text, 0, 1, new ArrayList<>()));
+    }
+
+    public void testRestartMidFileMatchesWholeFile() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3 * CustomDelimitersLexer.WINDOW_LENGTH; i++) {
+            text.append("[% if x").append(i).append(" %]<li>[[ y ]][# note ").append(i).append(" #]</li>\n")
+                .append("%% set z = ").append(i).append("\n[% endif %]\n");
+        }
+        for (boolean splitVariableEnd : new boolean[]{false, true}) {
+            Lexer lexer = new CustomDelimitersLexer(new JinjaLikeLexer(splitVariableEnd), LINES);
+            List<int[]> restartPoints = new ArrayList<>();
+            List<String> whole = lexAll(lexer, text, 0, 0, restartPoints);
+
+            // Restart where the platform would: at tokens starting in the initial state
+            List<Integer> restarts = new ArrayList<>();
+            for (int i = 1; i < restartPoints.size(); i++) {
+                if (restartPoints.get(i)[1] == 0) {
+                    restarts.add(i);
+                }
+            }
+            assertTrue(restarts.size() > 1000);
+            for (int r = 0; r < restarts.size(); r += 50) {
+                int i = restarts.get(r);
+                int[] point = restartPoints.get(i);
+                List<String> suffix = lexAll(lexer, text, point[0], point[1], new ArrayList<>());
+                assertEquals("restart at " + point[0], whole.subList(i, whole.size()), suffix);
+            }
+
+            // Started inside a tag, later windows must start inside tags too
+            List<String> fromTag = lexAll(lexer, text.substring(2), 0, 1, new ArrayList<>());
+            assertEquals(whole.subList(1, whole.size()), fromTag);
+        }
+    }
+
+    private static List<String> lexAll(Lexer lexer, CharSequence text) {
+        return lexAll(lexer, text, 0, 0, new ArrayList<>());
+    }
+
+    /**
+     * Lexes {@code text} from {@code start} to its end, checking that the tokens cover it without
+     * gaps or empty tokens; collects each token's start offset and state into {@code tokenStarts}.
+     */
+    private static List<String> lexAll(Lexer lexer, CharSequence text, int start, int state, List<int[]> tokenStarts) {
+        List<String> tokens = new ArrayList<>();
+        lexer.start(text, start, text.length(), state);
+        int previousEnd = start;
+        while (lexer.getTokenType() != null) {
+            assertEquals("gap before token " + tokens.size(), previousEnd, lexer.getTokenStart());
+            assertTrue("empty token at " + previousEnd, lexer.getTokenEnd() > lexer.getTokenStart());
+            tokenStarts.add(new int[]{lexer.getTokenStart(), lexer.getState()});
+            tokens.add(lexer.getTokenType() + " ('" + text.subSequence(lexer.getTokenStart(), lexer.getTokenEnd()) + "')");
+            previousEnd = lexer.getTokenEnd();
+            lexer.advance();
+        }
+        assertEquals(text.length(), previousEnd);
+        return tokens;
+    }
+
+    private static List<String> repeat(List<String> tokens, int times) {
+        List<String> repeated = new ArrayList<>();
+        for (int i = 0; i < times; i++) {
+            repeated.addAll(tokens);
+        }
+        return repeated;
+    }
+
+    /**
+     * Jinja2-like lexer standing in for the bundled one: template text, tags and comments.
+     * States: 0 text, 1 tag, 2 comment, 3 between the two braces of a split variable end.
+     */
+    static final class JinjaLikeLexer extends LexerBase {
+
+        static final IElementType TEXT = new IElementType("TEXT", Language.ANY);
+        static final IElementType BLOCK_START = new IElementType("BLOCK_START", Language.ANY);
+        static final IElementType BLOCK_END = new IElementType("BLOCK_END", Language.ANY);
+        static final IElementType VARIABLE_START = new IElementType("VARIABLE_START", Language.ANY);
+        static final IElementType VARIABLE_END = new IElementType("VARIABLE_END", Language.ANY);
+        static final IElementType RBRACE = new IElementType("RBRACE", Language.ANY);
+        static final IElementType COMMENT_START = new IElementType("COMMENT_START", Language.ANY);
+        static final IElementType COMMENT = new IElementType("COMMENT", Language.ANY);
+        static final IElementType COMMENT_END = new IElementType("COMMENT_END", Language.ANY);
+        static final IElementType NAME = new IElementType("NAME", Language.ANY);
+        static final IElementType WHITE_SPACE = new IElementType("WHITE_SPACE", Language.ANY);
+        static final IElementType OPERATOR = new IElementType("OPERATOR", Language.ANY);
+
+        // Lex the variable end as two brace tokens, as lexers tokenising punctuation one character at a time do
+        private final boolean splitVariableEnd;
+
+        private CharSequence buffer;
+        private int endOffset;
+        private int tokenStart;
+        private int tokenEnd;
+        private int state;
+        private int nextState;
+        private IElementType tokenType;
+
+        JinjaLikeLexer(boolean splitVariableEnd) {
+            this.splitVariableEnd = splitVariableEnd;
+        }
+
+        @Override
+        public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+            this.buffer = buffer;
+            this.endOffset = endOffset;
+            tokenEnd = startOffset;
+            nextState = initialState;
+            advance();
+        }
+
+        @Override
+        public int getState() {
+            return state;
+        }
+
+        @Override
+        public IElementType getTokenType() {
+            return tokenType;
+        }
+
+        @Override
+        public int getTokenStart() {
+            return tokenStart;
+        }
+
+        @Override
+        public int getTokenEnd() {
+            return tokenEnd;
+        }
+
+        @Override
+        public void advance() {
+            tokenStart = tokenEnd;
+            state = nextState;
+            if (tokenStart >= endOffset) {
+                tokenType = null;
+                return;
+            }
+            switch (state) {
+                case 0:
+                    lexText();
+                    break;
+                case 1:
+                    lexTag();
+                    break;
+                case 2:
+                    lexComment();
+                    break;
+                default:
+                    token(RBRACE, tokenStart + 1, 0);
+                    break;
+            }
+        }
+
+        private void lexText() {
+            if (at(tokenStart, "{#")) {
+                token(COMMENT_START, tokenStart + 2, 2);
+            } else if (at(tokenStart, "{%") || at(tokenStart, "{{")) {
+                int end = tokenStart + 2;
+                token(buffer.charAt(tokenStart + 1) == '%' ? BLOCK_START : VARIABLE_START,
+                      end < endOffset && buffer.charAt(end) == '-' ? end + 1 : end, 1);
+            } else {
+                int end = tokenStart;
+                while (end < endOffset && !at(end, "{%") && !at(end, "{{") && !at(end, "{#")) {
+                    end++;
+                }
+                token(TEXT, end, 0);
+            }
+        }
+
+        private void lexTag() {
+            char c = buffer.charAt(tokenStart);
+            int control = c == '-' ? 1 : 0;
+            if (at(tokenStart + control, "%}")) {
+                token(BLOCK_END, tokenStart + control + 2, 0);
+            } else if (at(tokenStart + control, "}}")) {
+                if (splitVariableEnd) {
+                    token(RBRACE, tokenStart + control + 1, 3);
+                } else {
+                    token(VARIABLE_END, tokenStart + control + 2, 0);
+                }
+            } else if (Character.isWhitespace(c)) {
+                int end = tokenStart;
+                while (end < endOffset && Character.isWhitespace(buffer.charAt(end))) {
+                    end++;
+                }
+                token(WHITE_SPACE, end, 1);
+            } else if (Character.isLetterOrDigit(c)) {
+                int end = tokenStart;
+                while (end < endOffset && Character.isLetterOrDigit(buffer.charAt(end))) {
+                    end++;
+                }
+                token(NAME, end, 1);
+            } else {
+                token(OPERATOR, tokenStart + 1, 1);
+            }
+        }
+
+        private void lexComment() {
+            if (at(tokenStart, "#}")) {
+                token(COMMENT_END, tokenStart + 2, 0);
+                return;
+            }
+            int end = tokenStart;
+            while (end < endOffset && !at(end, "#}")) {
+                end++;
+            }
+            token(COMMENT, end, 2);
+        }
+
+        private void token(IElementType type, int end, int stateAfter) {
+            tokenType = type;
+            tokenEnd = end;
+            nextState = stateAfter;
+        }
+
+        private boolean at(int offset, String text) {
+            if (offset + text.length() > endOffset) {
+                return false;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                if (buffer.charAt(offset + i) != text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @NotNull
+        @Override
+        public CharSequence getBufferSequence() {
+            return buffer;
+        }
+
+        @Override
+        public int getBufferEnd() {
+            return endOffset;
+        }
+    }
+}
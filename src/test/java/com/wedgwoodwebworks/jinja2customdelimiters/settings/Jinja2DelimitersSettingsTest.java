@@ -1,6 +1,7 @@
 package com.wedgwoodwebworks.jinja2customdelimiters.settings;
 
 import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.wedgwoodwebworks.jinja2customdelimiters.conversion.DelimiterProfile;
 
 public class Jinja2DelimitersSettingsTest extends BasePlatformTestCase {
 
@@ -27,6 +28,9 @@ public class Jinja2DelimitersSettingsTest extends BasePlatformTestCase {
         settings.setCommentEndString("#}");
         settings.setLineStatementPrefix("");
         settings.setLineCommentPrefix("");
+        settings.setShadowFormatting(false);
+        settings.setIncrementalTracking(false);
+        settings.setAutoDetectProfile(false);
     }
 
     public void testDefaultSettings() {
@@ -194,6 +198,65 @@ public class Jinja2DelimitersSettingsTest extends BasePlatformTestCase {
         }
     }
 
+    public void testDefaultProfileIsStandard() {
+        assertSame(DelimiterProfile.STANDARD, settings.getProfile());
+        assertTrue(settings.getProfile().isStandard());
+    }
+
+    public void testProfileRebuiltBySetters() {
+        DelimiterProfile before = settings.getProfile();
+
+        settings.setBlockStartString("[%");
+        settings.setBlockEndString("%]");
+
+        DelimiterProfile after = settings.getProfile();
+        assertNotSame(before, after);
+        assertFalse(after.isStandard());
+        assertEquals("[%", after.getBlockStart());
+        assertEquals("{% x %}", after.toStandard().translate("[% x %]"));
+
+        // Reading the profile again must not rebuild it
+        assertSame(after, settings.getProfile());
+    }
+
+    public void testSetDelimitersPublishesOneProfile() {
+        DelimiterProfile square = new DelimiterProfile("[%", "%]", "[[", "]]", "[#", "#]", "%%", "##");
+
+        settings.setDelimiters(square);
+
+        assertEquals(square, settings.getProfile());
+        assertEquals("[%", settings.getBlockStartString());
+        assertEquals("#]", settings.getCommentEndString());
+        assertEquals("##", settings.getLineCommentPrefix());
+
+        settings.setDelimiters(DelimiterProfile.STANDARD);
+        assertSame(DelimiterProfile.STANDARD, settings.getProfile());
+    }
+
+    public void testProfileRebuiltByLoadState() {
+        Jinja2DelimitersSettings newState = new Jinja2DelimitersSettings();
+        newState.variableStartString = "[[";
+        newState.variableEndString = "]]";
+
+        settings.loadState(newState);
+
+        assertEquals("[[ x ]]", settings.getProfile().fromStandard().translate("{{ x }}"));
+    }
+
+    public void testFormattingModesAreOptIn() {
+        assertFalse(new Jinja2DelimitersSettings().isShadowFormatting());
+        assertFalse(new Jinja2DelimitersSettings().isIncrementalTracking());
+        assertFalse(new Jinja2DelimitersSettings().isAutoDetectProfile());
+
+        Jinja2DelimitersSettings newState = new Jinja2DelimitersSettings();
+        newState.shadowFormatting = true;
+        newState.autoDetectProfile = true;
+        settings.loadState(newState);
+
+        assertTrue(settings.isShadowFormatting());
+        assertTrue(settings.isAutoDetectProfile());
+    }
+
     @Override
     protected void tearDown() throws Exception {
         // Settings are reset in setUp() before each test